@@ -2,16 +2,17 @@ package main.java.algorithms.OTP;
 
 import java.nio.file.Files;
 import java.io.File;
-import java.io.RandomAccessFile;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Random;
 
+import main.java.storage.PagedFile;
+
 public class Otp {
     private static final String keyPath = "key.txt";
     private static final int KEY_SIZE = 64;
 
-    public static void encrypt(RandomAccessFile raf) throws IOException {
+    public static void encrypt(PagedFile raf) throws IOException {
         try {
             byte[] db = new byte[(int)raf.length()];
             byte[] encrypted = new byte[db.length];
@@ -41,7 +42,7 @@ public class Otp {
         }
     }      
         
-    public static void decrypt(RandomAccessFile raf) throws IOException {
+    public static void decrypt(PagedFile raf) throws IOException {
         try {
             byte[] encrypted = new byte[(int)raf.length()];
             byte[] key = Files.readAllBytes(new File(keyPath).toPath());
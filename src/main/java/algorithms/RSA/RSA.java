@@ -1,10 +1,11 @@
 package main.java.algorithms.RSA;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
+import main.java.storage.PagedFile;
+
 public class RSA {
   private static final int KEY_SIZE = 2048;
   private static final SecureRandom random = new SecureRandom();
@@ -31,7 +32,7 @@ public class RSA {
     privateKey = new PrivateKey(n, d);
   }
 
-  public static void encryptFile(RandomAccessFile raf) throws IOException {
+  public static void encryptFile(PagedFile raf) throws IOException {
     generateKeyPair();
     // Ler os bytes do arquivo
     byte[] fileBytes = new byte[(int) raf.length()];
@@ -46,7 +47,7 @@ public class RSA {
     raf.write(encryptedMessage.toByteArray());
   }
 
-  public static void decryptFile(RandomAccessFile raf) throws IOException {
+  public static void decryptFile(PagedFile raf) throws IOException {
     raf.seek(0);
     // Ler os bytes criptografados do arquivo
     byte[] encryptedBytes = new byte[(int) raf.length()];
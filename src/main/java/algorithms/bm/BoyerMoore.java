@@ -1,13 +1,14 @@
 package main.java.algorithms.bm;
 
-import java.io.RandomAccessFile;
 import java.io.IOException;
 
+import main.java.storage.PagedFile;
+
 public class BoyerMoore {
     private final int MAX_VAL = 256;
     private final byte[] text;
 
-    public BoyerMoore(RandomAccessFile raf) throws IOException {
+    public BoyerMoore(PagedFile raf) throws IOException {
         this.text = new byte[(int)raf.length()];
 
         raf.seek(0);
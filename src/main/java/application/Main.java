@@ -5,9 +5,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
 
 import main.java.database.*;
 import main.java.database.Record;
+import main.java.storage.BufferedFile;
+import main.java.storage.Compaction;
+import main.java.storage.LogStorage;
+import main.java.storage.MappedFile;
+import main.java.storage.PagedFile;
+import main.java.storage.SlottedStorage;
+import main.java.storage.StorageEngine;
+import main.java.storage.WriteAheadLog;
 
 public class Main {
     static File file;
@@ -17,11 +28,51 @@ public class Main {
         Main.file = new File("db.bin");
         
         try {
-            Database db = new Database(file);
+            List<String> options = Arrays.asList(args);
+
+            // Opt-in mode that maps the database file into memory.
+            PagedFile raf = options.contains("--mmap")
+                ? new MappedFile(file)
+                : new BufferedFile(file);
+
+            /*
+             * Opt-in mode that logs every modification, so the database
+             * is kept between executions and recovered from the log.
+             */
+            boolean logged = options.contains("--wal");
+
+            /*
+             * Otherwise the database is always rebuilt from the csv file,
+             * so the previous one, possibly in another layout, is
+             * discarded.
+             */
+            if (!logged)
+                raf.setLength(0);
+
+            StorageEngine storage = options.contains("--slotted")
+                ? new SlottedStorage(raf)
+                : new LogStorage(raf, new File(file.getPath() + ".free"));
+
+            WriteAheadLog log = logged
+                ? new WriteAheadLog(new File("wal.bin"))
+                : null;
+
+            Database db = new Database(storage, log);
             
-            db.build();
+            if (logged && storage.first() != -1) {
+                int applied = db.recover();
+
+                System.out.println("Recovered " + applied + " logged operations");
+            } else {
+                db.build();
+            }
 
-            prompt(db);
+            // Opt-in mode that serves the database to other processes.
+            if (options.contains("--server")) {
+                serve(db);
+            } else {
+                prompt(db);
+            }
 
         } catch (IOException e) {
             System.err.println(e.getLocalizedMessage());
@@ -29,6 +80,28 @@ public class Main {
         }
     }
     
+    /*
+     * Runs until the process is stopped, closing the database on the
+     * way out so every operation answered is kept.
+     */
+    private static void serve(Database db) throws IOException {
+        Server server = new Server(db, Server.PORT);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                db.close();
+
+            } catch (IOException e) {
+                System.err.println(e.getLocalizedMessage());
+            }
+        }));
+
+        System.out.println("Listening on port " + server.getPort());
+
+        server.serve();
+    }
+    
     private static void prompt(Database db) throws NumberFormatException, Exception {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -47,12 +120,14 @@ public class Main {
                 + "\n9) Compress DB"
                 + "\n10) Pattern match"
                 + "\n11) Encrypt"
-                + "\n12) Quit"
+                + "\n12) Compact DB"
+                + "\n13) Query records"
+                + "\n14) Quit"
                 + "\n\n");
             
             String line = "";
             
-            while (!validChoice(line, 12)) {
+            while (!validChoice(line, 14)) {
                 System.out.print("> ");
                 line = reader.readLine();
             }
@@ -112,6 +187,13 @@ public class Main {
                     db.encrypt(Integer.parseInt(cryptography));
                     break;
                 case "12":
+                    vacuumHelper(db);
+                    break;
+                case "13":
+                    queryHelper(db, reader);
+                    break;
+                case "14":
+                    db.close();
                     return;
             }
         }
@@ -335,11 +417,95 @@ public class Main {
         }
     }
     
+    /*
+     * Asks for each condition, any of them left blank, and lets the
+     * database pick how to find the records.
+     */
+    private static void queryHelper(Database db, BufferedReader reader)
+        throws IOException {
+        
+        Query query = new Query();
+        
+        System.out.println("\nLeave blank the conditions not needed.\n");
+        
+        String[] ids = pair(reader, "IDs (from,to): ", "[0-9]+");
+        
+        if (ids != null)
+            query.idBetween(Integer.parseInt(ids[0]), Integer.parseInt(ids[1]));
+        
+        System.out.print("Genres (genre,genre...): ");
+        
+        for (String genre : reader.readLine().split(",")) {
+            if (!genre.isBlank())
+                query.genre(genre);
+        }
+        
+        System.out.print("Producers (producer,producer...): ");
+        
+        for (String producer : reader.readLine().split(",")) {
+            if (!producer.isBlank())
+                query.producer(producer);
+        }
+        
+        String[] scores = pair(reader, "Scores (min,max): ", "[0-9]+|[0-9]+\\.[0-9]+");
+        
+        if (scores != null)
+            query.scoreBetween(Float.parseFloat(scores[0]), Float.parseFloat(scores[1]));
+        
+        String[] dates = pair(reader, "Dates (year-month-day,year-month-day): ",
+            "[0-9]{4}-[0-9]{2}-[0-9]{2}");
+        
+        if (dates != null) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+                
+                query.dateBetween(format.parse(dates[0]), format.parse(dates[1]));
+                
+            } catch (ParseException e) {
+                // Already matched against the format.
+            }
+        }
+        
+        for (Record record : db.query(query))
+            System.out.println(record);
+        
+        System.out.println("\n" + db.explain(query));
+    }
+    
+    // Returns the two values of the answer, or null if it's left blank.
+    private static String[] pair(BufferedReader reader, String prompt, String value)
+        throws IOException {
+        
+        while (true) {
+            System.out.print(prompt);
+            
+            String line = reader.readLine().trim();
+            
+            if (line.isEmpty())
+                return null;
+            
+            String[] values = line.split(" *, *");
+            
+            if (values.length == 2 && values[0].matches(value) && values[1].matches(value))
+                return values;
+        }
+    }
+    
+    private static void vacuumHelper(Database db) throws IOException {
+        Compaction compaction = db.vacuum();
+
+        while (db.vacuumStep())
+            System.out.printf("\rCompacting... %3.0f%%", compaction.progress() * 100);
+
+        System.out.println("\n\n" + compaction.moved() + " records moved, "
+            + compaction.reclaimed() + " bytes reclaimed");
+    }
+    
     private static boolean validChoice(String input, int range) {
         if(range < 10) {
             return input.length() == 1 && input.matches("[1-" + range + "]");
         } else {
-            return input.matches("[1-9]|1[0" + range + "]");
+            return input.matches("[1-9]|1[0-" + (range - 10) + "]");
         }
     }
     
@@ -0,0 +1,223 @@
+package main.java.application;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import main.java.database.*;
+import main.java.database.Record;
+
+/*
+ * Serves the database to any number of clients over a local TCP socket,
+ * each connection handled by a thread of its own. Requests are lines of
+ * text, answered in the order they arrive, so clients may send several
+ * before reading the answers:
+ *
+ * GET <id>                    OK <record> | NONE
+ * INSERT <record>             OK <id>
+ * FIND <key>[,<key>]          OK <count>, then one record per line
+ * SCORE <min> <max>           OK <count>, then one record per line
+ * GROUP GENRE|PRODUCER        OK <count>, then one group per line
+ * STATS                       OK <hits> <misses> <records> <bytes>
+ * QUIT
+ *
+ * Records to insert are written as in the prompt, keys are genres or
+ * producers and failed requests are answered with ERROR <message>.
+ * Groups are written as by Aggregates.toString and STATS describes
+ * the record cache, for sizing it.
+ *
+ * Answers are only flushed once no other request is waiting, so a
+ * batch of requests is answered with as few writes as possible.
+ */
+public class Server implements Closeable {
+    public static final int PORT = 7878;
+
+    // Connections waiting to be accepted.
+    private static final int BACKLOG = 128;
+
+    private final Database db;
+
+    private final ServerSocket socket;
+
+    private final ExecutorService connections;
+
+    // Sockets still open, closed along with the server.
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    public Server(Database db, int port) throws IOException {
+        this.db = db;
+
+        try {
+            this.socket = new ServerSocket(
+                port, BACKLOG, InetAddress.getLoopbackAddress());
+
+        } catch (IOException e) {
+            throw new IOException("Unable to listen on port " + port, e);
+        }
+
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "connection");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    // Accepts connections until the server is closed.
+    public void serve() throws IOException {
+        while (!socket.isClosed()) {
+            Socket client;
+
+            try {
+                client = socket.accept();
+
+            } catch (SocketException e) {
+                if (socket.isClosed())
+                    return;
+
+                throw new IOException("Unable to accept connections", e);
+            }
+
+            clients.add(client);
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+
+        for (Socket client : clients)
+            client.close();
+
+        connections.shutdown();
+    }
+
+    private void handle(Socket client) {
+        try (
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                client.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                client.getOutputStream(), StandardCharsets.UTF_8))
+        ) {
+            client.setTcpNoDelay(true);
+
+            String request;
+
+            while ((request = in.readLine()) != null) {
+                if (request.trim().equalsIgnoreCase("QUIT"))
+                    break;
+
+                out.write(answer(request));
+
+                if (!in.ready())
+                    out.flush();
+            }
+
+            out.flush();
+
+        } catch (IOException e) {
+            // The client is gone, along with whatever it still expected.
+
+        } finally {
+            clients.remove(client);
+
+            try {
+                client.close();
+
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    // Returns the lines answering the request, each ending in a newline.
+    private String answer(String request) {
+        String[] parts = request.trim().split(" ", 2);
+        String args = (parts.length > 1) ? parts[1].trim() : "";
+
+        try {
+            switch (parts[0].toUpperCase()) {
+                case "GET":
+                    Record record = db.get(Integer.parseInt(args));
+
+                    return (record == null) ? "NONE\n" : "OK " + record + "\n";
+
+                case "INSERT":
+                    Record inserted = CSVParser.buildFrom(args);
+
+                    if (!db.insert(inserted))
+                        return "ERROR Unable to insert record\n";
+
+                    return "OK " + inserted.getId() + "\n";
+
+                case "FIND":
+                    String[] keys = args.split(",");
+
+                    return list((keys.length > 1)
+                        ? db.select(keys[0], keys[1])
+                        : db.select(args));
+
+                case "SCORE":
+                    String[] range = args.split(" +");
+
+                    return list(db.scoreBetween(
+                        Float.parseFloat(range[0]), Float.parseFloat(range[1])));
+
+                case "GROUP":
+                    Aggregates groups;
+
+                    if (args.equalsIgnoreCase("GENRE")) {
+                        groups = db.groupByGenre();
+                    } else if (args.equalsIgnoreCase("PRODUCER")) {
+                        groups = db.groupByProducer();
+                    } else {
+                        return "ERROR Unknown group " + args + "\n";
+                    }
+
+                    return "OK " + groups.groups().size() + "\n" + groups;
+
+                case "STATS":
+                    RecordCache cache = db.getCache();
+
+                    return "OK " + cache.hits() + " " + cache.misses()
+                        + " " + cache.size() + " " + cache.bytes() + "\n";
+
+                default:
+                    return "ERROR Unknown request " + parts[0] + "\n";
+            }
+
+        } catch (Exception e) {
+            return "ERROR " + e.getMessage() + "\n";
+        }
+    }
+
+    private static String list(List<Record> records) {
+        StringBuilder answer = new StringBuilder();
+
+        answer.append("OK ").append(records.size()).append('\n');
+
+        for (Record record : records)
+            answer.append(record).append('\n');
+
+        return answer.toString();
+    }
+}
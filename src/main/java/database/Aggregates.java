@@ -0,0 +1,200 @@
+package main.java.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/*
+ * Amount of records of each group, either a genre or a producer, along
+ * with their average score, total episodes and first and last dates.
+ *
+ * Groups are kept in a table of their own, keyed by the number the
+ * dictionary gives to each one, with an array per aggregate, so adding
+ * a record to its group never creates an object.
+ */
+public final class Aggregates {
+    private static final int EMPTY = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Dictionary dictionary;
+
+    // Slots of the table, found by linear probing from each key's hash.
+    private int[] keys;
+    private long[] counts;
+    private double[] scores;
+    private long[] episodes;
+    private long[] first;
+    private long[] last;
+
+    private int size;
+
+    Aggregates(Dictionary dictionary) {
+        this.dictionary = dictionary;
+
+        allocate(INITIAL_CAPACITY);
+    }
+
+    // Adds the attributes of a record to the group.
+    void add(int key, float score, int episodes, long date) {
+        int slot = slot(key);
+
+        if (keys[slot] == EMPTY) {
+            // Kept at most three quarters full, so probes stay short.
+            if (4 * (size + 1) > 3 * keys.length) {
+                grow();
+                slot = slot(key);
+            }
+
+            keys[slot] = key;
+            first[slot] = Long.MAX_VALUE;
+            last[slot] = Long.MIN_VALUE;
+            size++;
+        }
+
+        counts[slot]++;
+        scores[slot] += score;
+        this.episodes[slot] += episodes;
+        first[slot] = Math.min(first[slot], date);
+        last[slot] = Math.max(last[slot], date);
+    }
+
+    // Names of the groups with any record, in alphabetical order.
+    public List<String> groups() throws IOException {
+        List<String> groups = new ArrayList<String>(size);
+
+        for (int key : keys) {
+            if (key != EMPTY)
+                groups.add(dictionary.decode(key));
+        }
+
+        groups.sort(null);
+
+        return groups;
+    }
+
+    public long count(String group) {
+        int slot = find(group);
+
+        return (slot == -1) ? 0 : counts[slot];
+    }
+
+    // NaN for groups without records.
+    public double averageScore(String group) {
+        int slot = find(group);
+
+        return (slot == -1) ? Double.NaN : scores[slot] / counts[slot];
+    }
+
+    public long episodes(String group) {
+        int slot = find(group);
+
+        return (slot == -1) ? 0 : episodes[slot];
+    }
+
+    // Null for groups without records, as is the last date.
+    public Date firstDate(String group) {
+        int slot = find(group);
+
+        return (slot == -1) ? null : new Date(first[slot]);
+    }
+
+    public Date lastDate(String group) {
+        int slot = find(group);
+
+        return (slot == -1) ? null : new Date(last[slot]);
+    }
+
+    /*
+     * One line per group, in the order of groups():
+     *
+     * <group>,<count>,<average-score>,<episodes>,<first-date>,<last-date>
+     */
+    @Override
+    public String toString() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        StringBuilder lines = new StringBuilder();
+
+        try {
+            for (String group : groups()) {
+                int slot = find(group);
+
+                lines.append(group).append(',')
+                    .append(counts[slot]).append(',')
+                    .append(String.format("%.2f", scores[slot] / counts[slot])).append(',')
+                    .append(episodes[slot]).append(',')
+                    .append(format.format(new Date(first[slot]))).append(',')
+                    .append(format.format(new Date(last[slot]))).append('\n');
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return lines.toString();
+    }
+
+    private int find(String group) {
+        int key = dictionary.find(group.trim());
+
+        if (key == -1)
+            return -1;
+
+        int slot = slot(key);
+
+        return (keys[slot] == EMPTY) ? -1 : slot;
+    }
+
+    // Returns the slot holding the key, or the empty one where it'd go.
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        counts = new long[capacity];
+        scores = new double[capacity];
+        episodes = new long[capacity];
+        first = new long[capacity];
+        last = new long[capacity];
+
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Doubles the table, placing each group again.
+    private void grow() {
+        int[] keys = this.keys;
+        long[] counts = this.counts;
+        double[] scores = this.scores;
+        long[] episodes = this.episodes;
+        long[] first = this.first;
+        long[] last = this.last;
+
+        allocate(2 * keys.length);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY)
+                continue;
+
+            int slot = slot(keys[i]);
+
+            this.keys[slot] = keys[i];
+            this.counts[slot] = counts[i];
+            this.scores[slot] = scores[i];
+            this.episodes[slot] = episodes[i];
+            this.first[slot] = first[i];
+            this.last[slot] = last[i];
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package main.java.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * Iterates over the records found by a query, fetching them a batch at
+ * a time, so they're never all in memory at once and the database is
+ * only locked while each batch is read.
+ *
+ * Closing the cursor stops it, sparing the records not fetched yet,
+ * and it closes itself once every record has been returned. Failures
+ * while fetching are thrown as UncheckedIOException.
+ */
+public abstract class Cursor implements Iterator<Record>, Closeable {
+    // Records fetched at a time by default.
+    public static final int PREFETCH = 256;
+
+    private final int prefetch;
+
+    // Records fetched but not returned yet, from the next one on.
+    private final List<Record> buffer;
+    private int next;
+
+    private boolean exhausted;
+    private boolean closed;
+
+    protected Cursor() {
+        this(PREFETCH);
+    }
+
+    protected Cursor(int prefetch) {
+        this.prefetch = prefetch;
+        this.buffer = new ArrayList<Record>(prefetch);
+    }
+
+    /*
+     * Adds up to the amount of records specified, following the ones
+     * fetched so far, returning false once there are no more after
+     * them.
+     */
+    protected abstract boolean fetch(List<Record> records, int limit)
+        throws IOException;
+
+    @Override
+    public boolean hasNext() {
+        while (next == buffer.size()) {
+            if (closed || exhausted) {
+                close();
+                return false;
+            }
+
+            buffer.clear();
+            next = 0;
+
+            try {
+                exhausted = !fetch(buffer, prefetch);
+
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        return buffer.get(next++);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        buffer.clear();
+        next = 0;
+    }
+
+    // The stream closes the cursor when it's closed itself.
+    public Stream<Record> stream() {
+        Spliterator<Record> records = Spliterators.spliteratorUnknownSize(
+            this, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(records, false).onClose(this::close);
+    }
+}
@@ -1,11 +1,36 @@
 package main.java.database;
 
+import java.io.BufferedWriter;
+import java.io.DataInput;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import main.java.algorithms.Huffman.Huffman;
 import main.java.algorithms.KMP.KMP;
@@ -13,7 +38,15 @@ import main.java.algorithms.LZW.LZW;
 import main.java.algorithms.bm.BoyerMoore;
 import main.java.algorithms.OTP.Otp;
 import main.java.algorithms.RSA.RSA;
+import main.java.storage.BufferedFile;
+import main.java.storage.Compaction;
+import main.java.storage.LogStorage;
+import main.java.storage.MappedFile;
+import main.java.storage.StorageEngine;
+import main.java.storage.WriteAheadLog;
 import main.java.structures.btree.BTree;
+import main.java.structures.btree.BTreeKey;
+import main.java.structures.column.ColumnStore;
 import main.java.structures.hash.Hash;
 import main.java.structures.index.InvertedIndex;
 
@@ -22,17 +55,75 @@ import main.java.structures.index.InvertedIndex;
  * manipulations that may occur in the "database".
  */
 public class Database implements Sorting {
+    /*
+     * Records moved by each step of a compaction, small enough for
+     * the step to go unnoticed by the operations around it.
+     */
+    public static final int VACUUM_STEP = 64;
+
+    /*
+     * Size the log may reach before the files are synced and it's
+     * emptied, which bounds the work of a recovery.
+     */
+    public static final long CHECKPOINT_BYTES = 4 << 20;
+
+    // Estimated bytes of records kept in memory by default.
+    public static final long CACHE_BYTES = 8 << 20;
+
+    /*
+     * Threads answering asynchronous lookups. Most of their time is
+     * spent waiting on the files, so there are more than processors.
+     */
+    public static final int IO_THREADS =
+        2 * Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Records in each partition of the parallel scans, enough for a
+     * partition to outweigh the cost of handing it to a thread.
+     */
+    public static final int SCAN_PARTITION = 512;
+
+    // Records read at a time by the iterators, each under the lock.
+    private static final int RANGE_BATCH = 256;
+
+    /*
+     * Keys in each page of the trees, on average, as pages are split
+     * in half once full.
+     */
+    private static final double KEYS_PER_NODE = 5;
+
+    // Operations written to the log.
+    private static final int LOGGED_INSERT = 1;
+    private static final int LOGGED_UPDATE = 2;
+    private static final int LOGGED_DELETE = 3;
+
     /*
      * Provides the reading and writing operations
      * in the file specified.
      */
-    private final RandomAccessFile raf;
+    private final StorageEngine storage;
     
     // Index structures.
     private final BTree tree;
     private final Hash hash;
     private final InvertedIndex index;
 
+    // Records ordered by score and by date, for ranges over them.
+    private final BTree scores;
+    private final BTree dates;
+
+    // Numeric attributes, for filtering without reading the records.
+    private final ColumnStore columns;
+
+    // Records recently searched, by their pointer.
+    private final RecordCache cache;
+
+    // Operations since the last checkpoint, if they're logged at all.
+    private final WriteAheadLog log;
+
+    // Runs the asynchronous lookups, its threads started as needed.
+    private final ExecutorService io;
+
     // Data compression algorithms
     private final Huffman huffman;
     private final LZW lzw;
@@ -42,16 +133,94 @@ public class Database implements Sorting {
 
     private int encryptKey;
 
+    /*
+     * Whether the index structures reflect the content of the
+     * database file, which only happens after it's built.
+     */
+    private boolean indexed;
+
+    // Compaction in progress, if any.
+    private Compaction compaction;
+
+    /*
+     * Operations that changed the files so far. Cursors resuming from
+     * a position in them fail once it changes, as the position may no
+     * longer be where a record starts.
+     */
+    private int modifications;
+
+    // Where the partitions of the parallel scans start, while valid.
+    private volatile Boundaries boundaries;
+
+    /*
+     * Records inserted, updated or deleted so far, after which the
+     * statistics of the planner are collected again.
+     */
+    private long changes;
+
+    private volatile Statistics statistics;
+
+    /*
+     * Any amount of threads may search at once, while modifications
+     * have the database to themselves. Reads are safe to overlap, as
+     * the files give each thread its own position. Readers arriving
+     * after a waiting writer wait for it, so writers aren't starved.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
     public Database(File file) throws IOException {
-        this.raf = new RandomAccessFile(file, "rw");
+        this(file, false);
+    }
+
+    /*
+     * Mapping the file into memory favors read-heavy workloads, as
+     * records are decoded without any copy or system call.
+     */
+    public Database(File file, boolean mapped) throws IOException {
+        this(new LogStorage(
+            mapped ? new MappedFile(file) : new BufferedFile(file),
+            new File(file.getPath() + ".free")));
+    }
+
+    // Records are kept in the layout defined by the storage engine.
+    public Database(StorageEngine storage) throws IOException {
+        this(storage, null);
+    }
+
+    /*
+     * Every modification is written to the log before being applied,
+     * so the ones made since the last checkpoint can be recovered
+     * after a crash.
+     */
+    public Database(StorageEngine storage, WriteAheadLog log)
+        throws IOException {
+
+        this.storage = storage;
+        this.log = log;
+
+        // Records reach the file only after the log describing them.
+        if (log != null)
+            storage.getFile().setBarrier(log::sync);
         this.tree = new BTree(8);
         this.hash = new Hash();
         this.index = new InvertedIndex();
+        this.scores = new BTree(8, "scores.bin");
+        this.dates = new BTree(8, "dates.bin");
+        this.columns = new ColumnStore();
+        this.cache = new RecordCache(CACHE_BYTES);
+        this.io = Executors.newFixedThreadPool(IO_THREADS, r -> {
+            Thread thread = new Thread(r, "database-io");
+            thread.setDaemon(true);
+
+            return thread;
+        });
         this.huffman = new Huffman();
         this.lzw = new LZW();
     }
     
     public void build() throws IOException {
+        lock.writeLock().lock();
+
         try {
             Record[] records = CSVParser.parse();
             /*
@@ -60,270 +229,1345 @@ public class Database implements Sorting {
              * values are easily generated by incrementing that one.
              */
             int lastId = records[records.length - 1].getId();
-            raf.writeInt(lastId);
+
+            storage.clear();
+            storage.setLastId(lastId);
+            cache.clear();
       
             tree.build();
-            
-            for (Record record : records) {
-                long pos = record.serialize(raf);
-                
-                index.insert(record, pos);
-                tree.insert(record, pos);
-                hash.add(record.getId(), pos);
+            scores.clear();
+            dates.clear();
+            columns.clear();
+
+            List<Record> list = Arrays.asList(records);
+            long[] ptrs = storage.appendAll(list);
+
+            index.insertAll(list, ptrs);
+
+            for (int i = 0; i < ptrs.length; i++) {
+                tree.insert(records[i], ptrs[i]);
+                hash.add(records[i].getId(), ptrs[i]);
+                order(records[i], ptrs[i]);
+                columns.set(records[i]);
             }
 
-            bm = new BoyerMoore(raf);
+            statistics = null;
+            indexed = true;
+
+            bm = new BoyerMoore(storage.getFile());
+
+            flush();
+
+            // Operations logged before the build no longer apply.
+            if (log != null)
+                checkpoint();
 
             // Otp.encrypt(raf);
 
         } catch (IOException e) {
             throw new IOException("Error while initializing the database", e);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     public void match(String option, String pattern) throws IOException {
-        switch (option) {
-            case "1":
-                bm.search(pattern);
-                break;
-            case "2":
-                KMP.search(pattern);
-                break;
+        lock.readLock().lock();
+
+        try {
+            switch (option) {
+                case "1":
+                    bm.search(pattern);
+                    break;
+                case "2":
+                    KMP.search(pattern);
+                    break;
+            }
+
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     public void compress(int option, File inputFile) throws IOException {
-        switch(option) {
-            case 1:
-                huffman.compress(inputFile);
-                break;
-            case 2:
-                lzw.compress(inputFile);
+        lock.writeLock().lock();
+
+        try {
+            // The algorithms read the file by its path.
+            storage.flush();
+
+            switch(option) {
+                case 1:
+                    huffman.compress(inputFile);
+                    break;
+                case 2:
+                    lzw.compress(inputFile);
+            }
+
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
     public Record treeSearch(int id) throws IOException {
+        lock.readLock().lock();
+
         try {
             long dbPtr = tree.search(id);
             
             if (dbPtr == -1)
                 return null;
             
-            raf.seek(dbPtr);
-            
-            return Record.deserialize(raf);
+            return read(dbPtr);
                 
         } catch (IOException e) {
             throw new IOException(
                 "Error while retrieving record with id: " + id, e);
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     public Record hashSearch(int id) throws IOException {
+        lock.readLock().lock();
+
         try {
             long hashPtr = hash.search(id);
             
             if (hashPtr == -1)
                 return null;
             
-            raf.seek(hashPtr);
-            
-            return Record.deserialize(raf);
+            return read(hashPtr);
                 
         } catch (IOException e) {
             throw new IOException(
                 "Error while retrieving record with id: " + id, e);
+        } finally {
+            lock.readLock().unlock();
         }
     }
     
     public <K> void get(K key) throws IOException {
-        List<Long> recordPtrs = index.get(key);
-        
-        for (long recordPtr : recordPtrs) {
-            raf.seek(recordPtr);
-            Record record = Record.deserialize(raf);
-            System.out.println(record.toString());
-        }
+        print(cursor(key));
     }
     
     public <K> void get(K firstKey, K secondKey) throws IOException {
-        List<Long> recordPtrs = index.get(firstKey, secondKey);
-        
-        for (long recordPtr : recordPtrs) {
-            raf.seek(recordPtr);
-            Record record = Record.deserialize(raf);
-            System.out.println(record.toString());
+        print(cursor(firstKey, secondKey));
+    }
+
+    // Iterates over the records that have the genre or producer specified.
+    public <K> Cursor cursor(K key) {
+        return new Postings<K>(key, null);
+    }
+
+    // Iterates over the records that have both the keys specified.
+    public <K> Cursor cursor(K firstKey, K secondKey) {
+        return new Postings<K>(firstKey, secondKey);
+    }
+
+    /*
+     * Pointers are found once and their records read a batch at a time,
+     * so modifications in between make the cursor fail.
+     */
+    private class Postings<K> extends Cursor {
+        private final K firstKey;
+        private final K secondKey;
+
+        private List<Long> ptrs;
+        private int next;
+        private int expected;
+
+        Postings(K firstKey, K secondKey) {
+            this.firstKey = firstKey;
+            this.secondKey = secondKey;
+        }
+
+        @Override
+        protected boolean fetch(List<Record> records, int limit) throws IOException {
+            lock.readLock().lock();
+
+            try {
+                if (ptrs == null) {
+                    ptrs = (secondKey == null)
+                        ? index.get(firstKey)
+                        : index.get(firstKey, secondKey);
+
+                    expected = modifications;
+
+                } else if (modifications != expected) {
+                    throw new ConcurrentModificationException();
+                }
+
+                int count = Math.min(limit, ptrs.size() - next);
+                long[] batch = new long[count];
+
+                for (int i = 0; i < count; i++)
+                    batch[i] = ptrs.get(next++);
+
+                for (Record record : read(batch)) {
+                    if (record != null)
+                        records.add(record);
+                }
+
+                return next < ptrs.size();
+
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /*
+     * Prints every record of the cursor, flushing the output once at
+     * the end rather than for each line.
+     */
+    private static void print(Cursor cursor) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out)));
+
+        try (cursor) {
+            while (cursor.hasNext())
+                out.println(cursor.next());
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out.flush();
+        }
+    }
+
+    // Returns the records that have the genre or producer specified.
+    public <K> List<Record> select(K key) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            return read(index.get(key));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the records that have both the keys specified.
+    public <K> List<Record> select(K firstKey, K secondKey) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            return read(index.get(firstKey, secondKey));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * The lookups below return at once, being answered by the I/O
+     * threads, so many of them can be waiting on the files together
+     * instead of one after the other. Futures complete exceptionally
+     * with the error the lookup would have thrown.
+     */
+    public CompletableFuture<Record> treeSearchAsync(int id) {
+        return async(() -> treeSearch(id));
+    }
+
+    public CompletableFuture<Record> hashSearchAsync(int id) {
+        return async(() -> hashSearch(id));
+    }
+
+    public CompletableFuture<Record> getAsync(int id) {
+        return async(() -> get(id));
+    }
+
+    public <K> CompletableFuture<List<Record>> selectAsync(K key) {
+        return async(() -> select(key));
+    }
+
+    public <K> CompletableFuture<List<Record>> selectAsync(K firstKey, K secondKey) {
+        return async(() -> select(firstKey, secondKey));
+    }
+
+    private <T> CompletableFuture<T> async(Lookup<T> lookup) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+
+        try {
+            io.execute(() -> {
+                try {
+                    future.complete(lookup.run());
+
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(
+                new IOException("The database is closed", e));
+        }
+
+        return future;
+    }
+
+    private interface Lookup<T> {
+        T run() throws Exception;
+    }
+
+    /*
+     * Reads the record through the cache. Searches only add records to
+     * it under the read lock and modifications, which hold the write
+     * lock, remove the ones they change, so it's never out of date.
+     */
+    private Record read(long dbPtr) throws IOException {
+        Record record = cache.get(dbPtr);
+
+        if (record == null) {
+            record = storage.read(dbPtr);
+
+            if (record != null)
+                cache.put(dbPtr, record);
+        }
+
+        return record;
+    }
+
+    private List<Record> read(List<Long> recordPtrs) throws IOException {
+        long[] ptrs = new long[recordPtrs.size()];
+
+        for (int i = 0; i < ptrs.length; i++)
+            ptrs[i] = recordPtrs.get(i);
+
+        List<Record> records = new ArrayList<Record>(ptrs.length);
+
+        for (Record record : read(ptrs)) {
+            if (record != null)
+                records.add(record);
+        }
+
+        return records;
+    }
+
+    /*
+     * Reads the records at the pointers, null where there's none, in
+     * the order given. The ones not cached are read in the order they
+     * are stored, so the file is traversed once and each page is
+     * fetched a single time for all the records in it.
+     */
+    private Record[] read(long[] ptrs) throws IOException {
+        Record[] records = new Record[ptrs.length];
+        long[] missing = new long[ptrs.length];
+        int count = 0;
+
+        for (int i = 0; i < ptrs.length; i++) {
+            if (ptrs[i] == -1)
+                continue;
+
+            records[i] = cache.get(ptrs[i]);
+
+            if (records[i] == null)
+                missing[count++] = ptrs[i];
+        }
+
+        if (count == 0)
+            return records;
+
+        Arrays.sort(missing, 0, count);
+
+        // Each record is read once, however many times it's asked for.
+        int distinct = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || missing[i] != missing[distinct - 1])
+                missing[distinct++] = missing[i];
+        }
+
+        missing = Arrays.copyOf(missing, distinct);
+
+        Record[] read = new Record[distinct];
+
+        for (int i = 0; i < distinct; i++) {
+            read[i] = storage.read(missing[i]);
+
+            if (read[i] != null)
+                cache.put(missing[i], read[i]);
+        }
+
+        // Pointers asked for more than once get a record each.
+        boolean[] given = new boolean[distinct];
+
+        for (int i = 0; i < ptrs.length; i++) {
+            if (ptrs[i] == -1 || records[i] != null)
+                continue;
+
+            int j = Arrays.binarySearch(missing, ptrs[i]);
+
+            if (read[j] != null)
+                records[i] = given[j] ? read[j].copy() : read[j];
+
+            given[j] = true;
+        }
+
+        return records;
+    }
+    
+    /*
+     * Returns the entity with the corresponding id
+     * and null if it isn't found in the database.
+     */
+    public Record get(int id) throws Exception {
+        lock.readLock().lock();
+
+        try {
+            // Decrypting writes the file, which requires the write lock.
+            if (encryptKey != 0) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+
+                try {
+                    decrypt();
+
+                } finally {
+                    // Kept as a reader, the write lock being released.
+                    lock.readLock().lock();
+                    lock.writeLock().unlock();
+                }
+            }
+
+            long dbPtr = locate(id);
+
+            if (dbPtr == -1)
+                return null;
+
+            return read(dbPtr);
+
+        } catch (IOException e) {
+            throw new IOException(
+                "Error while retrieving record with id: " + id, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Returns the records with ids in the range, inclusive, in
+     * ascending order. They are read a batch at a time, each under the
+     * read lock alone, so a long iteration doesn't hold modifications
+     * back, and each record is as it was when its batch was read.
+     */
+    public Cursor rangeById(int from, int to) {
+        return new KeyRange(tree, from, to);
+    }
+
+    /*
+     * Returns the records with a score in the range, inclusive, from
+     * the lowest score on. Records with the same score are ordered by
+     * id. Read as those of rangeById.
+     */
+    public Cursor rangeByScore(float min, float max) {
+        return new KeyRange(scores, BTree.key(min), BTree.key(max));
+    }
+
+    // Returns the records dated in the range, inclusive, from the oldest on.
+    public Cursor rangeByDate(Date from, Date to) {
+        return new KeyRange(dates, from.getTime(), to.getTime());
+    }
+
+    /*
+     * Iterates over a range of a tree's keys, each batch resuming from
+     * the key after the last one read.
+     */
+    private class KeyRange extends Cursor {
+        private final BTree keys;
+
+        // First key of the next batch.
+        private long fromKey;
+        private int fromId;
+        private final long to;
+
+        KeyRange(BTree keys, long from, long to) {
+            this.keys = keys;
+            this.fromKey = from;
+            this.fromId = Integer.MIN_VALUE;
+            this.to = to;
+        }
+
+        @Override
+        protected boolean fetch(List<Record> records, int limit) throws IOException {
+            if (fromKey > to)
+                return false;
+
+            lock.readLock().lock();
+
+            try {
+                Iterator<BTreeKey> range = keys.range(fromKey, fromId, to);
+                long[] ptrs = new long[limit];
+                int count = 0;
+                boolean last = false;
+
+                while (count < limit && range.hasNext()) {
+                    BTreeKey key = range.next();
+
+                    ptrs[count++] = key.getDbPtr();
+
+                    // The last key possible can't be followed by another.
+                    if (key.getId() < Integer.MAX_VALUE) {
+                        fromKey = key.getKey();
+                        fromId = key.getId() + 1;
+                    } else if (key.getKey() < Long.MAX_VALUE) {
+                        fromKey = key.getKey() + 1;
+                        fromId = Integer.MIN_VALUE;
+                    } else {
+                        last = true;
+                    }
+                }
+
+                for (Record record : read(Arrays.copyOf(ptrs, count))) {
+                    if (record != null)
+                        records.add(record);
+                }
+
+                return count == limit && !last && fromKey <= to;
+
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    // Returns the records with a score in the range, inclusive.
+    public List<Record> scoreBetween(float min, float max) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            return get(columns.scoreBetween(min, max));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the records dated in the range, inclusive.
+    public List<Record> dateBetween(Date from, Date to) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            return get(columns.dateBetween(from.getTime(), to.getTime()));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Returns the records with the ids specified, in the same order,
+     * leaving out the ones that don't exist. Records are read in the
+     * order they are stored rather than the one asked for.
+     */
+    public List<Record> getAll(int[] ids) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            return get(ids);
+
+        } catch (IOException e) {
+            throw new IOException("Error while retrieving records", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Record> get(int[] ids) throws IOException {
+        long[] ptrs = new long[ids.length];
+
+        /*
+         * The records are checked to have the ids once read, so the
+         * file isn't visited in between as locate would.
+         */
+        for (int i = 0; i < ids.length; i++) {
+            // Ids that can't exist are left out like missing ones.
+            if (ids[i] < 1)
+                ptrs[i] = -1;
+            else
+                ptrs[i] = indexed ? hash.search(ids[i]) : locate(ids[i]);
+        }
+
+        Record[] read = read(ptrs);
+        List<Record> records = new ArrayList<Record>(ids.length);
+
+        for (int i = 0; i < ids.length; i++) {
+            if (read[i] != null && read[i].getId() == ids[i])
+                records.add(read[i]);
+        }
+
+        return records;
+    }
+
+    /*
+     * Counts the records of each genre, along with their average score,
+     * total episodes and first and last dates. Groups are found in the
+     * lists of the inverted index and the attributes in the columns,
+     * so not a single record is read.
+     */
+    public Aggregates groupByGenre() throws IOException {
+        return aggregate(false);
+    }
+
+    public Aggregates groupByProducer() throws IOException {
+        return aggregate(true);
+    }
+
+    private Aggregates aggregate(boolean producers) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            Aggregates aggregates = new Aggregates(Dictionary.shared());
+
+            index.forEach(producers, (key, id) -> {
+                if (columns.contains(id)) {
+                    aggregates.add(key, columns.score(id),
+                        columns.episodes(id), columns.date(id));
+                }
+            });
+
+            return aggregates;
+
+        } catch (IOException e) {
+            throw new IOException("Error while aggregating records", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Returns the records that meet every condition of the query. They
+     * are found through whichever structure is estimated to read the
+     * fewest pages, in the order it finds them: that of the ids, scores
+     * or dates for their trees, and that of the file otherwise.
+     */
+    public List<Record> query(Query query) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            return plans(query).get(0).run(query);
+
+        } catch (IOException e) {
+            throw new IOException("Error while answering query: " + query, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Describes how the query is answered: the records and page reads
+     * estimated for each way of finding them, cheapest first, then the
+     * ones taken by running the first. Estimates assume no page is in
+     * memory, and reads are counted whenever any thread moves on to
+     * another page of a file, so both are comparable while the query
+     * runs alone. A mapped database file counts its segments instead.
+     */
+    public String explain(Query query) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            List<Plan> plans = plans(query);
+            StringBuilder explain = new StringBuilder();
+
+            explain.append("Query: ").append(query).append('\n');
+
+            for (Plan plan : plans)
+                explain.append(plan == plans.get(0) ? "-> " : "   ").append(plan).append('\n');
+
+            long before = fetches();
+            int found = plans.get(0).run(query).size();
+
+            explain.append(String.format("Estimated %.0f records, found %d with %d page reads",
+                estimate(query), found, fetches() - before));
+
+            return explain.toString();
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Returns the ways of answering the query, the cheapest first. The
+     * indexes are only considered once they're built, and each one is
+     * costed by the pages of its own file plus those of the records it
+     * points to.
+     */
+    private List<Plan> plans(Query query) throws IOException {
+        List<Plan> plans = new ArrayList<Plan>();
+        double pages = Math.ceil((double)storage.getFile().length() / BufferedFile.PAGE_SIZE);
+
+        if (!indexed) {
+            plans.add(new Plan("Full scan", -1, pages, null));
+
+            return plans;
+        }
+
+        Statistics stats = statistics();
+
+        plans.add(new Plan("Full scan", stats.records, pages, null));
+
+        if (query.byId() && query.fromId == query.toId) {
+            int id = query.fromId;
+
+            plans.add(new Plan("Hash search of id " + id,
+                columns.contains(id) ? 1 : 0, 1 + pages(pages, 1), () -> {
+                    long dbPtr = hash.search(id);
+
+                    return (dbPtr == -1)
+                        ? Collections.<Long>emptyList()
+                        : Collections.singletonList(dbPtr);
+                }));
+
+        } else if (query.byId()) {
+            double rows = stats.ids(query.fromId, query.toId);
+
+            plans.add(new Plan("B-tree range of ids", rows, treePages(stats, rows) + pages(pages, rows),
+                () -> pointers(tree, query.fromId, query.toId)));
+        }
+
+        if (query.byScore()) {
+            double rows = stats.scores(query.minScore, query.maxScore);
+
+            plans.add(new Plan("B-tree range of scores", rows, treePages(stats, rows) + pages(pages, rows),
+                () -> pointers(scores, BTree.key(query.minScore), BTree.key(query.maxScore))));
+        }
+
+        if (query.byDate()) {
+            double rows = stats.dates(query.fromDate, query.toDate);
+
+            plans.add(new Plan("B-tree range of dates", rows, treePages(stats, rows) + pages(pages, rows),
+                () -> pointers(dates, query.fromDate, query.toDate)));
+        }
+
+        List<String> keys = query.keys();
+
+        if (!keys.isEmpty()) {
+            double rows = stats.records * keys(query, stats);
+            double lists = 0;
+
+            /*
+             * Each list is taken as written next to each other, as it is
+             * when the database is built, and read whole, genres and
+             * producers alike.
+             */
+            for (String key : keys)
+                lists += Math.ceil((double)index.count(key) * InvertedIndex.NODE_BYTES / BufferedFile.PAGE_SIZE);
+
+            plans.add(new Plan("Inverted index intersection of " + String.join(" & ", keys),
+                rows, lists + pages(pages, rows), () -> index.getAll(keys)));
+        }
+
+        plans.sort(Comparator.comparingDouble(plan -> plan.pages));
+
+        return plans;
+    }
+
+    /*
+     * Records expected to meet every condition, taking them as
+     * independent, or -1 if there are no statistics yet.
+     */
+    private double estimate(Query query) {
+        if (!indexed)
+            return -1;
+
+        Statistics stats = statistics();
+
+        if (stats.records == 0)
+            return 0;
+
+        double rows = stats.records;
+
+        if (query.byId())
+            rows *= stats.ids(query.fromId, query.toId) / stats.records;
+
+        if (query.byScore())
+            rows *= stats.scores(query.minScore, query.maxScore) / stats.records;
+
+        if (query.byDate())
+            rows *= stats.dates(query.fromDate, query.toDate) / stats.records;
+
+        return rows * keys(query, stats);
+    }
+
+    /*
+     * Share of the records with every genre and producer of the query,
+     * taken as independent. A key only counts the records having it as
+     * what it's asked for, even if others have it as the other one.
+     */
+    private double keys(Query query, Statistics stats) {
+        if (stats.records == 0)
+            return 0;
+
+        double share = 1;
+
+        for (String genre : query.genres)
+            share *= (double)index.count(genre, false) / stats.records;
+
+        for (String producer : query.producers)
+            share *= (double)index.count(producer, true) / stats.records;
+
+        return share;
+    }
+
+    /*
+     * Pages of a tree read to find the keys of that many records: the
+     * ones down to the first key and those holding the rest.
+     */
+    private static double treePages(Statistics stats, double rows) {
+        double height = Math.ceil(Math.log(stats.records + 1) / Math.log(KEYS_PER_NODE + 1));
+
+        return Math.max(1, height) + Math.ceil(rows / KEYS_PER_NODE);
+    }
+
+    /*
+     * Distinct pages holding that many records, when spread evenly
+     * over the file, as they're read in the order they are stored.
+     */
+    private static double pages(double pages, double rows) {
+        if (pages == 0)
+            return 0;
+
+        return pages * (1 - Math.pow(1 - 1 / pages, rows));
+    }
+
+    private static List<Long> pointers(BTree keys, long from, long to) throws IOException {
+        List<Long> ptrs = new ArrayList<Long>();
+
+        try {
+            Iterator<BTreeKey> range = keys.range(from, Integer.MIN_VALUE, to);
+
+            while (range.hasNext())
+                ptrs.add(range.next().getDbPtr());
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return ptrs;
+    }
+
+    /*
+     * Collected from the columns, again once enough records changed
+     * for them to be off by a tenth.
+     */
+    private Statistics statistics() {
+        Statistics current = statistics;
+
+        if (current == null || changes - current.changes > current.records / 10) {
+            current = new Statistics(columns, changes);
+            statistics = current;
+        }
+
+        return current;
+    }
+
+    // Pages fetched so far from every file a query may read.
+    private long fetches() {
+        return storage.getFile().fetches() + tree.fetches() + hash.fetches()
+            + index.fetches() + scores.fetches() + dates.fetches();
+    }
+
+    // Finds the positions of the records a plan reads.
+    private interface Access {
+        List<Long> pointers() throws IOException;
+    }
+
+    private class Plan {
+        private final String name;
+        private final double rows;
+        private final double pages;
+
+        // Null for a full scan.
+        private final Access access;
+
+        Plan(String name, double rows, double pages, Access access) {
+            this.name = name;
+            this.rows = rows;
+            this.pages = pages;
+            this.access = access;
+        }
+
+        // Reads the records found, keeping the ones meeting the query.
+        List<Record> run(Query query) throws IOException {
+            List<Record> records = new ArrayList<Record>();
+
+            if (access != null) {
+                for (Record record : read(access.pointers())) {
+                    if (query.matches(record))
+                        records.add(record);
+                }
+
+                return records;
+            }
+
+            RecordView view = new RecordView();
+
+            try {
+                for (long pos = storage.first(); pos != -1; pos = storage.next(pos)) {
+                    if (storage.read(pos, view) && query.matches(view))
+                        records.add(view.toRecord());
+                }
+
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            return records;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s records, %.0f page reads",
+                name, (rows < 0) ? "?" : String.format("%.0f", rows), pages);
+        }
+    }
+
+    /*
+     * Returns true if a new entity is successfully inserted
+     * into the database and false otherwise.
+     */
+    public boolean insert(Record record) throws IOException {
+        long position;
+
+        lock.writeLock().lock();
+
+        try {
+            record.setId(storage.getLastId() + 1);
+            position = log(LOGGED_INSERT, record.toPlainByteArray());
+
+            storage.setLastId(record.getId());
+            
+            long dbPtr = storage.insert(record);
+            cache.remove(dbPtr);
+
+            if (indexed) {
+                tree.insert(record, dbPtr);
+                hash.add(record.getId(), dbPtr);
+                index.insert(record, dbPtr);
+                order(record, dbPtr);
+            }
+
+            columns.set(record);
+            changes++;
+
+            //tree.show();
+
+            commit();
+
+        } catch (IOException e) {
+            System.err.println(
+                    "Unable to insert record record:\n" + record.toString());
+
+            return false;
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        await(position);
+
+        return true;
+    }
+
+    /*
+     * Inserts every record at once, returning true if all of them
+     * were inserted and false otherwise. Their ids are reserved as a
+     * single range, following the order given, the records are
+     * written to the end of the file with a single write and the
+     * indexes are updated in ascending order of ids.
+     */
+    public boolean insertAll(Collection<Record> records) throws IOException {
+        if (records.isEmpty())
+            return true;
+
+        List<Record> list = new ArrayList<Record>(records);
+        long position = 0;
+
+        lock.writeLock().lock();
+
+        try {
+            int lastId = storage.getLastId();
+
+            for (Record record : list) {
+                record.setId(++lastId);
+                position = log(LOGGED_INSERT, record.toPlainByteArray());
+            }
+
+            storage.setLastId(lastId);
+
+            long[] ptrs = storage.appendAll(list);
+
+            for (int i = 0; i < ptrs.length; i++) {
+                cache.remove(ptrs[i]);
+
+                if (indexed) {
+                    tree.insert(list.get(i), ptrs[i]);
+                    hash.add(list.get(i).getId(), ptrs[i]);
+                    order(list.get(i), ptrs[i]);
+                }
+
+                columns.set(list.get(i));
+                changes++;
+            }
+
+            if (indexed)
+                index.insertAll(list, ptrs);
+
+            commit();
+
+        } catch (IOException e) {
+            System.err.println(
+                    "Unable to insert " + list.size() + " records");
+
+            return false;
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        await(position);
+
+        return true;
+    }
+
+    /*
+     * Returns true if it was successfully able to update
+     * such record and false otherwise.
+     */
+    public boolean update(Record record) throws IOException {
+        long position;
+
+        lock.writeLock().lock();
+
+        try {
+            long pos = locate(record.getId());
+
+            if (pos == -1)
+                return false;
+
+            position = log(LOGGED_UPDATE, record.toPlainByteArray());
+
+            Record prev = storage.read(pos);
+            long dbPtr = storage.update(pos, record);
+
+            cache.remove(pos);
+            cache.remove(dbPtr);
+
+            if (indexed) {
+                if (dbPtr != pos) {
+                    tree.update(record.getId(), dbPtr);
+                    hash.update(record.getId(), dbPtr);
+                }
+                index.update(prev, pos, record, dbPtr);
+
+                // Removed keys are reused if the attributes didn't change.
+                unorder(prev);
+                order(record, dbPtr);
+            }
+
+            columns.set(record);
+            changes++;
+
+            commit();
+
+        } catch (IOException e) {
+            throw new IOException(
+                    "Error while updating record with id: " + record.getId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        await(position);
+
+        return true;
+    }
+
+    /*
+     * Returns true if the record with such id was successfully
+     * removed from the "database", false otherwise.
+     */
+    public boolean delete(int id) throws IOException {
+        long position;
+
+        lock.writeLock().lock();
+
+        try {
+            long pos = locate(id);
+
+            if (pos == -1)
+                return false;
+
+            position = log(LOGGED_DELETE, ByteBuffer.allocate(Integer.BYTES).putInt(id).array());
+
+            Record r = storage.read(pos);
+            storage.delete(pos);
+            cache.remove(pos);
+
+            if (indexed) {
+                tree.remove(id);
+                hash.remove(id);
+                index.remove(r, pos);
+                unorder(r);
+            }
+
+            columns.remove(id);
+            changes++;
+
+            commit();
+
+        } catch (IOException e) {
+            System.err.println(
+                    "Error while deleting record with id: " + id);
+
+            return false;
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        await(position);
+
+        return true;
+    }
+
+    // Adds the record to the indexes of its score and date.
+    private void order(Record record, long dbPtr) throws IOException {
+        scores.insert(BTree.key(record.getScore()), record.getId(), dbPtr);
+        dates.insert(record.getDate().getTime(), record.getId(), dbPtr);
+    }
+
+    private void unorder(Record record) throws IOException {
+        scores.remove(BTree.key(record.getScore()), record.getId());
+        dates.remove(record.getDate().getTime(), record.getId());
+    }
+
+    /*
+     * Returns the position of the valid record with such id
+     * in the database file and -1 if there's none.
+     */
+    private long locate(int id) throws IOException {
+        // Ids are given from 1 on.
+        if (id < 1)
+            return -1;
+
+        /*
+         * Once the indexes are built every valid record is reachable
+         * through them, so a miss means the id doesn't exist and the
+         * file never has to be traversed.
+         */
+        if (indexed) {
+            long dbPtr = hash.search(id);
+
+            if (dbPtr == -1)
+                return -1;
+
+            return (storage.idAt(dbPtr) == id) ? dbPtr : -1;
         }
+
+        List<Long> found = parallel((pos, view) -> (storage.idAt(pos) == id) ? pos : null);
+
+        return found.isEmpty() ? -1 : found.get(0);
     }
-    
+
     /*
-     * Returns the entity with the corresponding id
-     * and null if it isn't found in the database.
+     * Rebuilds every index from the records currently stored,
+     * for operations that move them around the file.
      */
-    public Record get(int id) throws Exception {
+    private void reindex() throws IOException {
         try {
-            if (encryptKey == 1) {
-                Otp.decrypt(raf);
-            } else {
-                RSA.decryptFile(raf);
-            }
-            
-            // Header is not useful for this operation.
-            raf.seek(Integer.BYTES);
-
-            while (!eof(raf)) {
-                long pos = raf.getFilePointer();
-                boolean valid = raf.readBoolean();
-                int recordSize = raf.readInt();
-
-                if (valid) {
-                    raf.seek(pos);
-                    Record r = Record.deserialize(raf);
-
-                    if (r.getId() == id)
-                        return r;
-                } else
-                    // Deleted records must not be read.
-                    raf.skipBytes(recordSize);
+            cache.clear();
+            tree.clear();
+            hash.clear();
+            index.clear();
+            scores.clear();
+            dates.clear();
+
+            /*
+             * Keys are inserted in ascending order, the same one they
+             * have when the database is built, which the tree and the
+             * hash are arranged for.
+             */
+            Map<Integer, Long> ptrs = new TreeMap<Integer, Long>();
+
+            for (long pos = storage.first(); pos != -1; pos = storage.next(pos))
+                ptrs.put(storage.idAt(pos), pos);
+
+            for (Map.Entry<Integer, Long> entry : ptrs.entrySet()) {
+                long pos = entry.getValue();
+                Record record = storage.read(pos);
+
+                tree.insert(record, pos);
+                hash.add(record.getId(), pos);
+                index.insert(record, pos);
+                order(record, pos);
             }
 
         } catch (IOException e) {
-            throw new IOException(
-                "Error while retrieving record with id: " + id, e);
+            throw new IOException("Error while rebuilding the indexes", e);
         }
-
-        return null;
     }
 
     /*
-     * Returns true if a new entity is successfully inserted
-     * into the database and false otherwise.
+     * Brings the files up to date with the operations in the log, then
+     * rebuilds the indexes from the records, since they may have been
+     * left behind the database file by a crash. Returns the amount of
+     * operations applied again.
+     *
+     * Operations are applied by id, so applying one that had already
+     * reached the database file has no further effect.
      */
-    public boolean insert(Record record) throws IOException {
+    public int recover() throws IOException {
+        lock.writeLock().lock();
+
         try {
-            record.setId(getLastId() + 1);
-            raf.seek(0);
-            raf.writeInt(record.getId());
-            
-            // New records are always inserted at the end.
-            long dbPtr = raf.length();
-            raf.seek(dbPtr);
-            record.serialize(raf);
+            Recovery recovery = new Recovery();
 
-            tree.insert(record, dbPtr);
-            hash.add(record.getId(), dbPtr);
-            index.insert(record, dbPtr);
+            if (log != null)
+                log.replay(recovery);
 
+            if (recovery.lastId > storage.getLastId())
+                storage.setLastId(recovery.lastId);
 
-            //tree.show();
+            reindex();
 
-            return true;
+            columns.clear();
+
+            for (long pos = storage.first(); pos != -1; pos = storage.next(pos))
+                columns.set(storage.read(pos));
+
+            statistics = null;
+            indexed = true;
+
+            bm = new BoyerMoore(storage.getFile());
+
+            checkpoint();
+
+            return recovery.applied;
 
         } catch (IOException e) {
-            System.err.println(
-                    "Unable to insert record record:\n" + record.toString());
+            throw new IOException("Error while recovering the database", e);
+        } finally {
+            lock.writeLock().unlock();
         }
-
-        return false;
     }
 
     /*
-     * Returns true if it was successfully able to update
-     * such record and false otherwise.
+     * Makes sure every file is on the disk, after which the operations
+     * in the log are no longer needed.
      */
-    public boolean update(Record record) throws IOException {
+    public void checkpoint() throws IOException {
+        lock.writeLock().lock();
+
         try {
-            raf.seek(Integer.BYTES);
+            // Pages are only written once the log covering them is synced.
+            if (log != null)
+                log.sync();
+
+            flush();
 
-            while (!eof(raf)) {
-                long pos = raf.getFilePointer();
-                boolean valid = raf.readBoolean();
-                int recordSize = raf.readInt();
+            Dictionary.shared().sync();
+            storage.getFile().sync();
+            tree.sync();
+            hash.sync();
+            index.sync();
+            scores.sync();
+            dates.sync();
+            columns.sync();
 
-                if (valid) {
-                    raf.seek(pos);
-                    Record r = Record.deserialize(raf);
+            if (log != null)
+                log.reset();
 
-                    if (record.getId() == r.getId()) {
-                        byte[] recordAsBytes = record.toByteArray();
-                        raf.seek(pos);
+        } catch (IOException e) {
+            throw new IOException("Error while checkpointing the database", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                        if (recordAsBytes.length <= recordSize)
-                            record.serialize(raf, recordSize);
-                        else {
-                            raf.writeBoolean(false);
-                            raf.seek(raf.length());
+    /*
+     * Starts compacting the database file, returning the compaction so
+     * its progress can be followed. It's carried out by vacuumStep, so
+     * the database remains usable while it happens.
+     */
+    public Compaction vacuum() throws IOException {
+        lock.writeLock().lock();
 
-                            record.serialize(raf);
-                        }
+        try {
+            if (compaction == null || compaction.done())
+                compaction = storage.compaction();
 
-                        return true;
-                    }
+            return compaction;
 
-                } else
-                    raf.skipBytes(recordSize);
-            }
-        } catch (IOException e) {
-            throw new IOException(
-                    "Error while updating record with id: " + record.getId(), e);
+        } finally {
+            lock.writeLock().unlock();
         }
-
-        return false;
     }
 
     /*
-     * Returns true if the record with such id was successfully
-     * removed from the "database", false otherwise.
+     * Performs one bounded step of the compaction in progress, updating
+     * the indexes of the records moved. Returns false once it's done.
      */
-    public boolean delete(int id) throws IOException {
-        try {
-            // Header is not useful for this operation.
-            raf.seek(Integer.BYTES);
+    public boolean vacuumStep() throws IOException {
+        lock.writeLock().lock();
 
-            while (!eof(raf)) {
-                // Position of the validation bit.
-                long pos = raf.getFilePointer();
-                boolean valid = raf.readBoolean();
-                int recordSize = raf.readInt();
+        try {
+            if (compaction == null || compaction.done())
+                return false;
 
-                if (valid) {
-                    raf.seek(pos);
-                    Record r = Record.deserialize(raf);
+            boolean more = compaction.step(VACUUM_STEP, this::relocate);
 
-                    if (r.getId() == id) {
-                        raf.seek(pos);
-                        raf.writeBoolean(false);
+            flush();
 
-                        return true;
-                    }
+            return more;
 
-                } else
-                    // Deleted records must not be read.
-                    raf.skipBytes(recordSize);
-            }
         } catch (IOException e) {
-            System.err.println(
-                    "Error while deleting record with id: " + id);
+            throw new IOException("Error while compacting the database", e);
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
+
+    // Points the indexes to the new position of a record.
+    private void relocate(long from, long to) throws IOException {
+        cache.remove(from);
+        cache.remove(to);
+
+        if (!indexed)
+            return;
 
-        return false;
+        Record record = storage.read(to);
+
+        tree.update(record.getId(), to);
+        hash.update(record.getId(), to);
+        index.update(record, from, record, to);
+        scores.update(BTree.key(record.getScore()), record.getId(), to);
+        dates.update(record.getDate().getTime(), record.getId(), to);
     }
 
     public void sort(int limit, boolean optimize) throws IOException {
+        lock.writeLock().lock();
+
         try {
             // Temporarily used for the merging process.
-            RandomAccessFile[] files = new RandomAccessFile[4];
+            BufferedFile[] files = new BufferedFile[4];
 
             for (int i = 0; i < 4; i++)
-                files[i] = new RandomAccessFile("tmp" + i, "rw");
+                files[i] = new BufferedFile("tmp" + i);
 
-            // Header remains the same.
-            raf.seek(Integer.BYTES);
+            // Reused by every block, as records are only moved around.
+            RecordView[] views = new RecordView[limit];
+
+            for (int i = 0; i < limit; i++)
+                views[i] = new RecordView();
 
             // Initial distribution.
-            while (!eof(raf)) {
-                distribute(files[0], limit);
-                distribute(files[1], limit);
+            long pos = storage.first();
+
+            while (pos != -1) {
+                pos = distribute(files[0], pos, views);
+                pos = distribute(files[1], pos, views);
             }
             // Used to alternate the source and destination files.
             boolean control = true;
@@ -337,34 +1581,43 @@ public class Database implements Sorting {
 
             close(files);
 
+            // Every record has been moved by the sorting process.
+            if (indexed)
+                reindex();
+
+            flush();
+
         } catch (IOException e) {
             throw new IOException("Unable to sort", e);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /*
      * Retrieves the specified amount of records from the database
      * file, sorts and writes them into the specified destination.
+     * Returns the pointer of the next record to be distributed.
      */
-    private void distribute(RandomAccessFile file, int limit)
+    private long distribute(BufferedFile file, long pos, RecordView[] views)
             throws IOException {
 
         try {
-            Record[] records = new Record[limit];
-
             int i = 0;
             // Prioritizes end-of-file considering the last iteration.
-            for (; !eof(raf) && i < limit; i++)
-                records[i] = Record.deserialize(raf);
+            for (; pos != -1 && i < views.length; i++, pos = storage.next(pos))
+                storage.read(pos, views[i]);
 
             /*
              * Limiting the array like this guarantees that the sorting
-             * operation will only consider existing objects (non null).
+             * operation will only consider the records just read.
              */
-            quickSort(records, 0, i - 1);
+            quickSort(views, 0, i - 1);
 
             for (int j = 0; j < i; j++)
-                records[j].serialize(file);
+                views[j].writeTo(file);
+
+            return pos;
 
         } catch (IOException e) {
             throw new IOException("Error while sorting", e);
@@ -374,14 +1627,19 @@ public class Database implements Sorting {
     /*
      * Merges the already sorted records from the first two files
      * to the last ones considering the established limit.
+     *
+     * The optimized version ignores the limit, merging every sequence
+     * of records in ascending order, so blocks whose records happen
+     * to be ordered are merged as one, reducing the amount of runs
+     * necessary to sort the database.
      */
     private void merge(
             int limit,
             boolean optimize,
-            RandomAccessFile first,
-            RandomAccessFile second,
-            RandomAccessFile third,
-            RandomAccessFile fourth
+            BufferedFile first,
+            BufferedFile second,
+            BufferedFile third,
+            BufferedFile fourth
 
     ) throws IOException {
         // Used to switch between destination files.
@@ -389,68 +1647,56 @@ public class Database implements Sorting {
         first.seek(0);
         second.seek(0);
 
-        int firstLimit = limit;
-        int secondLimit = limit;
+        /*
+         * Next record of each file, which is only decoded for its id
+         * and copied as is once it's the lowest one.
+         */
+        RecordView fromFirst = new RecordView();
+        RecordView fromSecond = new RecordView();
+
+        boolean firstLeft = next(first, fromFirst);
+        boolean secondLeft = next(second, fromSecond);
+
+        while (firstLeft || secondLeft) {
+            BufferedFile dest = (destControl) ? fourth : third;
+
+            // Whether the current block of each file still has records.
+            boolean firstBlock = firstLeft;
+            boolean secondBlock = secondLeft;
 
-        // Deals with all the intervals except the last one.
-        while (!eof(first) && !eof(second)) {
             int firstCounter = 0;
             int secondCounter = 0;
-            // The function can support both the "static" and "dynamic" merges.
-            if (optimize) {
-                firstLimit = getLimit(first, limit);
-                secondLimit = getLimit(second, limit);
-            }
 
-            while (firstCounter < firstLimit && secondCounter < secondLimit) {
-                /*
-                 * While reading record by record, EOF may get reached
-                 * before the outer loop condition.
-                 */
-                if (eof(first) || eof(second))
-                    break;
-                /*
-                 * Position to return to when a record has a higher id
-                 * than the other, so new comparisons can happen.
-                 */
-                long firstPos = first.getFilePointer();
-                long secondPos = second.getFilePointer();
+            while (firstBlock || secondBlock) {
+                if (firstBlock
+                        && (!secondBlock || fromFirst.getId() < fromSecond.getId())) {
 
-                // Loaded for attribute comparison.
-                Record fromFirst = Record.deserialize(first);
-                Record fromSecond = Record.deserialize(second);
+                    int id = fromFirst.getId();
 
-                if (fromFirst.getId() < fromSecond.getId()) {
-                    fromFirst.serialize((destControl) ? fourth : third);
-                    second.seek(secondPos);
+                    fromFirst.writeTo(dest);
                     firstCounter++;
 
+                    firstLeft = next(first, fromFirst);
+                    firstBlock = firstLeft && ((optimize)
+                        ? fromFirst.getId() > id
+                        : firstCounter < limit);
+
                 } else {
-                    fromSecond.serialize((destControl) ? fourth : third);
-                    first.seek(firstPos);
-                    secondCounter++;
-                }
-            }
+                    int id = fromSecond.getId();
 
-            while (!eof(first) && firstCounter < firstLimit) {
-                Record.deserialize(first).serialize((destControl) ? fourth : third);
-                firstCounter++;
-            }
+                    fromSecond.writeTo(dest);
+                    secondCounter++;
 
-            while (!eof(second) && secondCounter < secondLimit) {
-                Record.deserialize(second).serialize((destControl) ? fourth : third);
-                secondCounter++;
+                    secondLeft = next(second, fromSecond);
+                    secondBlock = secondLeft && ((optimize)
+                        ? fromSecond.getId() > id
+                        : secondCounter < limit);
+                }
             }
 
             destControl = !destControl;
         }
 
-        while (!eof(first))
-            fourth.write(first.read());
-
-        while (!eof(second))
-            fourth.write(second.read());
-
         /*
          * Once the two files have been merged, they must be
          * reinitialized for the next run.
@@ -459,50 +1705,21 @@ public class Database implements Sorting {
         second.setLength(0);
     }
 
-    /*
-     * Checks if the last element from a group and the first
-     * from the next one are in ascending order, which
-     * increases the merging limit, directly reducing the
-     * amount of runs necessary to sort the database.
-     */
-    private int getLimit(RandomAccessFile file, int limit)
-            throws IOException {
-
-        long pos = file.getFilePointer();
-        int newLimit = limit;
+    // Loads the next record of the file, returning false at its end.
+    private boolean next(BufferedFile file, RecordView view) throws IOException {
+        if (eof(file))
+            return false;
 
-        while (true) {
-            for (int i = 0; !eof(file) && i < limit - 1; i++) {
-                // Ignores all records besides the last on the block.
-                file.skipBytes(1);
-                file.skipBytes(file.readInt());
-            }
-
-            if (eof(file))
-                break;
-
-            Record prev = Record.deserialize(file);
-            Record next = Record.deserialize(file);
-
-            if (prev.getId() > next.getId())
-                return newLimit;
-
-            newLimit += limit;
-        }
-        /*
-         * After peeking plenty of records, the file pointer
-         * must return to execute the merging process.
-         */
-        file.seek(pos);
+        view.readFrom(file);
 
-        return newLimit;
+        return true;
     }
 
     /*
      * Checks if only one file contains data, which is the
      * condition for the merging operation to end.
      */
-    private boolean singleDest(RandomAccessFile[] files) throws IOException {
+    private boolean singleDest(BufferedFile[] files) throws IOException {
         int zeroLen = 0;
 
         for (int i = 0; i < files.length; i++)
@@ -513,13 +1730,23 @@ public class Database implements Sorting {
     }
 
     // Deletes all the temporary files.
-    private void close(RandomAccessFile[] files) throws IOException {
+    private void close(BufferedFile[] files) throws IOException {
         for (int i = 0; i < files.length; i++) {
             if (files[i].length() > 0) {
-                raf.seek(Integer.BYTES);
+                /*
+                 * The sorted records are stored again, so the file is
+                 * left in the storage's own layout, without the space
+                 * once taken by deleted records.
+                 */
+                RecordView view = new RecordView();
 
-                while (!eof(files[i]))
-                    raf.write(files[i].read());
+                storage.clear();
+                files[i].seek(0);
+
+                while (!eof(files[i])) {
+                    view.readFrom(files[i]);
+                    storage.append(view.toRecord());
+                }
             }
             files[i].close();
         }
@@ -530,33 +1757,235 @@ public class Database implements Sorting {
         Files.delete(Paths.get("tmp3"));
     }
 
-    // Returns the database file's first four bytes.
-    private int getLastId() throws IOException {
+    /*
+     * Returns the records that satisfy the filter, every one if it's
+     * null, in the order they are stored. Unlike scan, partitions of
+     * the file are decoded by several threads at once and the records
+     * are only returned once all of them are done.
+     */
+    public List<Record> parallelScan(Predicate<RecordView> filter) throws IOException {
+        lock.readLock().lock();
+
         try {
-            raf.seek(0);
+            return parallel((pos, view) -> {
+                if (filter == null)
+                    return storage.read(pos);
 
-            return raf.readInt();
+                return (storage.read(pos, view) && filter.test(view))
+                    ? view.toRecord()
+                    : null;
+            });
 
-        } catch (IOException e) {
-            throw new IOException(
-                    "Unable to retrieve file header", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Visits every valid record, collecting what's returned for each
+     * other than null in the order they are stored. The caller holds
+     * either lock, so the file doesn't change in between, while the
+     * partitions are visited by the fork-join pool.
+     */
+    private <T> List<T> parallel(Visitor<T> visitor) throws IOException {
+        long[] starts = boundaries();
+
+        if (starts.length == 0)
+            return new ArrayList<T>();
+
+        try {
+            return ForkJoinPool.commonPool().invoke(
+                new PartitionTask<T>(visitor, starts, 0, starts.length));
+
+        } catch (UncheckedIOException e) {
+            throw new IOException("Error while scanning the database", e.getCause());
+        }
+    }
+
+    /*
+     * Returns the position of every SCAN_PARTITION-th record, found by
+     * traversing the headers alone. They're kept until the files are
+     * modified, so only the first scan after that pays for them.
+     */
+    private long[] boundaries() throws IOException {
+        Boundaries current = boundaries;
+
+        if (current != null && current.modifications == modifications)
+            return current.starts;
+
+        long[] starts = new long[16];
+        int count = 0;
+        int records = 0;
+
+        for (long pos = storage.first(); pos != -1; pos = storage.next(pos)) {
+            if (records++ % SCAN_PARTITION != 0)
+                continue;
+
+            if (count == starts.length)
+                starts = Arrays.copyOf(starts, 2 * count);
+
+            starts[count++] = pos;
+        }
+
+        starts = Arrays.copyOf(starts, count);
+        boundaries = new Boundaries(modifications, starts);
+
+        return starts;
+    }
+
+    // Each partition is given a view of its own to read records into.
+    private interface Visitor<T> {
+        T visit(long pos, RecordView view) throws IOException;
+    }
+
+    private static class Boundaries {
+        private final int modifications;
+        private final long[] starts;
+
+        Boundaries(int modifications, long[] starts) {
+            this.modifications = modifications;
+            this.starts = starts;
+        }
+    }
+
+    /*
+     * Visits the partitions in the range, halving it among two tasks
+     * until there's a single one left.
+     */
+    private class PartitionTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Visitor<T> visitor;
+        private final long[] starts;
+        private final int from;
+        private final int to;
+
+        PartitionTask(Visitor<T> visitor, long[] starts, int from, int to) {
+            this.visitor = visitor;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+
+                PartitionTask<T> left = new PartitionTask<T>(visitor, starts, from, middle);
+                left.fork();
+
+                List<T> right = new PartitionTask<T>(visitor, starts, middle, to).compute();
+                List<T> results = left.join();
+
+                results.addAll(right);
+
+                return results;
+            }
+
+            // The partition ends where the next one starts.
+            long end = (to < starts.length) ? starts[to] : -1;
+            List<T> results = new ArrayList<T>();
+            RecordView view = new RecordView();
+
+            try {
+                for (long pos = starts[from]; pos != end && pos != -1; pos = storage.next(pos)) {
+                    T result = visitor.visit(pos, view);
+
+                    if (result != null)
+                        results.add(result);
+                }
+
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return results;
         }
     }
 
     public void show() throws IOException {
-        raf.seek(Integer.BYTES);
+        print(scan());
+    }
+
+    /*
+     * Iterates over every valid record in the order they are stored,
+     * without keeping them in the cache. Each batch resumes from a
+     * position in the file, so modifications in between make the
+     * cursor fail.
+     */
+    public Cursor scan() {
+        return new Scan(null);
+    }
+
+    /*
+     * Iterates over the records that satisfy the filter, which is
+     * tested on each record's bytes, so only the ones that match are
+     * decoded. Filters on the numeric attributes are found in Filters
+     * and skip the strings entirely.
+     */
+    public Cursor scan(Predicate<RecordView> filter) {
+        return new Scan(filter);
+    }
+
+    private class Scan extends Cursor {
+        private final Predicate<RecordView> filter;
+        private final RecordView view = new RecordView();
+
+        // Next record to read, once the traversal has started.
+        private long pos;
+        private boolean started;
+        private int expected;
+
+        Scan(Predicate<RecordView> filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        protected boolean fetch(List<Record> records, int limit) throws IOException {
+            lock.readLock().lock();
+
+            try {
+                if (!started) {
+                    started = true;
+                    pos = storage.first();
+                    expected = modifications;
+
+                } else if (modifications != expected) {
+                    throw new ConcurrentModificationException();
+                }
+
+                /*
+                 * Batches are bounded by the records looked at, so the
+                 * lock isn't held for long when few of them match.
+                 */
+                for (int i = 0; i < limit && pos != -1; i++) {
+                    if (filter == null) {
+                        Record record = storage.read(pos);
+
+                        if (record != null)
+                            records.add(record);
+
+                    } else if (storage.read(pos, view) && filter.test(view)) {
+                        records.add(view.toRecord());
+                    }
+
+                    pos = storage.next(pos);
+                }
 
-        while (!eof(raf))
-            System.out.println(Record.deserialize(raf));
+                return pos != -1;
 
-        raf.seek(0);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
     }
 
     /*
      * Returns whether there's still an offset between
      * the file pointer and its length.
      */
-    private boolean eof(RandomAccessFile raf) throws IOException {
+    private boolean eof(BufferedFile raf) throws IOException {
         try {
             return raf.getFilePointer() == raf.length();
 
@@ -567,12 +1996,173 @@ public class Database implements Sorting {
     }
 
     public void encrypt(int key) throws Exception {
-        this.encryptKey = key;
+        lock.writeLock().lock();
+
+        try {
+            this.encryptKey = key;
+            cache.clear();
+            modifications++;
+
+            if(encryptKey == 1) {
+                Otp.encrypt(storage.getFile());
+            } else {
+                RSA.encryptFile(storage.getFile());
+            }
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Pages modified by an operation are written back once it's
+     * finished, so the files are always left in a consistent state.
+     */
+    private void flush() throws IOException {
+        modifications++;
+
+        // Entries must be saved before the records that use them.
+        Dictionary.shared().flush();
+        storage.flush();
+        tree.flush();
+        hash.flush();
+        index.flush();
+        scores.flush();
+        dates.flush();
+        columns.flush();
+    }
+
+    // Hit and miss counters of the record cache, which can be resized.
+    public RecordCache getCache() {
+        return this.cache;
+    }
+
+    public void close() throws IOException {
+        // Lookups already requested are answered before the files close.
+        io.shutdown();
+
+        try {
+            io.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            if (log != null) {
+                checkpoint();
+                log.close();
+            }
+
+            storage.close();
+            tree.close();
+            hash.close();
+            index.close();
+            scores.close();
+            dates.close();
+            columns.close();
+            Dictionary.shared().close();
+
+        } catch (IOException e) {
+            throw new IOException("Error while closing the database", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Ends an operation, under the write lock. Without a log, its pages
+     * are written back at once. With one, they're kept in memory until
+     * the log covering them is synced, by a checkpoint or before the
+     * file evicts them, and checkpoints happen once the log has grown
+     * enough.
+     */
+    private void commit() throws IOException {
+        if (log == null) {
+            flush();
+            return;
+        }
+
+        modifications++;
+
+        if (log.size() >= CHECKPOINT_BYTES)
+            checkpoint();
+    }
+
+    /*
+     * Returns once the operation logged up to the position is durable.
+     * It's called after releasing the write lock, so the operations
+     * of other writers meanwhile share the same sync.
+     */
+    private void await(long position) throws IOException {
+        if (log != null)
+            log.sync(position);
+    }
+
+    // Position the log reached with the entry, or 0 without a log.
+    private long log(int type, byte[] payload) throws IOException {
+        return (log != null) ? log.append(type, payload) : 0;
+    }
+
+    /*
+     * Applies the logged operations to the database file alone, which
+     * is traversed first to find where each record is.
+     */
+    private class Recovery implements WriteAheadLog.Replay {
+        private final Map<Integer, Long> ptrs = new HashMap<Integer, Long>();
+
+        private int lastId;
+        private int applied;
+
+        Recovery() throws IOException {
+            List<Long> copies = new ArrayList<Long>();
 
-        if(encryptKey == 1) {
-            Otp.encrypt(raf);
-        } else {
-            RSA.encryptFile(raf);
+            for (long pos = storage.first(); pos != -1; pos = storage.next(pos)) {
+                // Updates interrupted while moving a record leave two copies.
+                if (ptrs.putIfAbsent(storage.idAt(pos), pos) != null)
+                    copies.add(pos);
+            }
+
+            for (long pos : copies)
+                storage.delete(pos);
+        }
+
+        @Override
+        public void apply(int type, DataInput payload) throws IOException {
+            if (type == LOGGED_DELETE) {
+                Long pos = ptrs.remove(payload.readInt());
+
+                if (pos != null)
+                    storage.delete(pos);
+            } else {
+                Record record = Record.deserialize(payload, true);
+                Long pos = ptrs.get(record.getId());
+
+                ptrs.put(record.getId(), (pos == null)
+                    ? storage.insert(record)
+                    : storage.update(pos, record));
+
+                lastId = Math.max(lastId, record.getId());
+            }
+
+            applied++;
+        }
+    }
+
+    /*
+     * The plain content is written back to the file, so it
+     * only has to be restored once after being encrypted.
+     */
+    private void decrypt() throws Exception {
+        if (encryptKey == 1) {
+            Otp.decrypt(storage.getFile());
+        } else if (encryptKey == 2) {
+            RSA.decryptFile(storage.getFile());
         }
+
+        encryptKey = 0;
+        modifications++;
     }
 }
@@ -0,0 +1,134 @@
+package main.java.database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import main.java.storage.BufferedFile;
+
+/*
+ * Assigns a number to each distinct genre and producer, so records
+ * store the numbers instead of repeating the same strings. Numbers
+ * are given in order and never change, so the file is only appended
+ * to:
+ *
+ * [<byte-repr-length> <byte-repr>]...
+ *
+ * where the position of each string is its number.
+ *
+ * Strings are looked up without locking, as every record read decodes
+ * a few of them, possibly from several threads at once. Only new ones
+ * are assigned numbers under the lock.
+ */
+public class Dictionary {
+    private static volatile Dictionary shared;
+
+    private final BufferedFile file;
+
+    // Replaced by a longer copy for each new string.
+    private volatile String[] values;
+    private final Map<String, Integer> ids;
+
+    public Dictionary(String name) throws IOException {
+        this.values = new String[0];
+        this.ids = new ConcurrentHashMap<String, Integer>();
+
+        try {
+            this.file = new BufferedFile(name);
+
+            while (file.getFilePointer() < file.length()) {
+                byte[] bytes = new byte[file.readInt()];
+                file.readFully(bytes);
+
+                add(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+        } catch (IOException e) {
+            throw new IOException("Error while loading dictionary " + name, e);
+        }
+    }
+
+    // The one used by the records, opened the first time it's needed.
+    public static Dictionary shared() throws IOException {
+        Dictionary dictionary = shared;
+
+        if (dictionary != null)
+            return dictionary;
+
+        synchronized (Dictionary.class) {
+            if (shared == null)
+                shared = new Dictionary("dictionary.bin");
+
+            return shared;
+        }
+    }
+
+    // Returns the number of the string, assigning one if it's new.
+    public synchronized int encode(String value) throws IOException {
+        Integer id = ids.get(value);
+
+        if (id != null)
+            return id;
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        file.seek(file.length());
+        file.writeInt(bytes.length);
+        file.write(bytes);
+
+        return add(value);
+    }
+
+    // Returns the number of the string or -1 if it has none.
+    public int find(String value) {
+        Integer id = ids.get(value);
+
+        return (id == null) ? -1 : id;
+    }
+
+    // The same instance is returned for every record that has it.
+    public String decode(int id) throws IOException {
+        String[] values = this.values;
+
+        if (id < 0 || id >= values.length)
+            throw new IOException("Unknown dictionary entry " + id);
+
+        return values[id];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public synchronized void flush() throws IOException {
+        file.flush();
+    }
+
+    public synchronized void sync() throws IOException {
+        file.sync();
+    }
+
+    public void close() throws IOException {
+        synchronized (Dictionary.class) {
+            if (shared == this)
+                shared = null;
+        }
+
+        file.close();
+    }
+
+    // The string is decodable before its number is found by encode.
+    private int add(String value) {
+        int id = values.length;
+
+        String[] copy = Arrays.copyOf(values, id + 1);
+        copy[id] = value;
+
+        values = copy;
+        ids.put(value, id);
+
+        return id;
+    }
+}
@@ -0,0 +1,69 @@
+package main.java.database;
+
+import java.util.Date;
+import java.util.function.Predicate;
+
+/*
+ * Conditions on the numeric attributes of the records, for scans
+ * filtering them before they're decoded. Each is evaluated on the
+ * record's bytes, skipping its strings, and they may be combined with
+ * and, or and negate. Ranges are inclusive.
+ */
+public final class Filters {
+    private Filters() {}
+
+    public static Predicate<RecordView> scoreAbove(float min) {
+        return view -> view.getScore() > min;
+    }
+
+    public static Predicate<RecordView> scoreBelow(float max) {
+        return view -> view.getScore() < max;
+    }
+
+    public static Predicate<RecordView> scoreBetween(float min, float max) {
+        return view -> {
+            float score = view.getScore();
+
+            return score >= min && score <= max;
+        };
+    }
+
+    public static Predicate<RecordView> episodesAbove(int min) {
+        return view -> view.getEpisodes() > min;
+    }
+
+    public static Predicate<RecordView> episodesBelow(int max) {
+        return view -> view.getEpisodes() < max;
+    }
+
+    public static Predicate<RecordView> episodesBetween(int min, int max) {
+        return view -> {
+            int episodes = view.getEpisodes();
+
+            return episodes >= min && episodes <= max;
+        };
+    }
+
+    public static Predicate<RecordView> dateAfter(Date date) {
+        long time = date.getTime();
+
+        return view -> view.getTime() > time;
+    }
+
+    public static Predicate<RecordView> dateBefore(Date date) {
+        long time = date.getTime();
+
+        return view -> view.getTime() < time;
+    }
+
+    public static Predicate<RecordView> dateBetween(Date from, Date to) {
+        long start = from.getTime();
+        long end = to.getTime();
+
+        return view -> {
+            long time = view.getTime();
+
+            return time >= start && time <= end;
+        };
+    }
+}
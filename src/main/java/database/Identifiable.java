@@ -0,0 +1,6 @@
+package main.java.database;
+
+// Anything that can be ordered by the id of a record.
+public interface Identifiable {
+    int getId();
+}
@@ -0,0 +1,189 @@
+package main.java.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*
+ * Conditions a record must meet all of, leaving it to the database to
+ * pick the structure that finds those records the cheapest:
+ *
+ * new Query().genre("Action").scoreBetween(8, 10)
+ *
+ * Ranges are inclusive, and setting one again keeps only the values
+ * within both. Genres and producers are matched as whole entries.
+ */
+public final class Query {
+    // Read by the planner, which knows the unbounded ones by their limits.
+    int fromId = Integer.MIN_VALUE;
+    int toId = Integer.MAX_VALUE;
+
+    float minScore = Float.NEGATIVE_INFINITY;
+    float maxScore = Float.POSITIVE_INFINITY;
+
+    long fromDate = Long.MIN_VALUE;
+    long toDate = Long.MAX_VALUE;
+
+    final List<String> genres = new ArrayList<String>();
+    final List<String> producers = new ArrayList<String>();
+
+    public Query id(int id) {
+        return idBetween(id, id);
+    }
+
+    public Query idBetween(int from, int to) {
+        fromId = Math.max(fromId, from);
+        toId = Math.min(toId, to);
+
+        return this;
+    }
+
+    public Query genre(String genre) {
+        genres.add(genre.trim());
+
+        return this;
+    }
+
+    public Query producer(String producer) {
+        producers.add(producer.trim());
+
+        return this;
+    }
+
+    public Query scoreBetween(float min, float max) {
+        minScore = Math.max(minScore, min);
+        maxScore = Math.min(maxScore, max);
+
+        return this;
+    }
+
+    public Query dateBetween(Date from, Date to) {
+        fromDate = Math.max(fromDate, from.getTime());
+        toDate = Math.min(toDate, to.getTime());
+
+        return this;
+    }
+
+    boolean byId() {
+        return fromId != Integer.MIN_VALUE || toId != Integer.MAX_VALUE;
+    }
+
+    boolean byScore() {
+        return minScore != Float.NEGATIVE_INFINITY || maxScore != Float.POSITIVE_INFINITY;
+    }
+
+    boolean byDate() {
+        return fromDate != Long.MIN_VALUE || toDate != Long.MAX_VALUE;
+    }
+
+    // Genres and producers alike, as the inverted index holds both.
+    List<String> keys() {
+        List<String> keys = new ArrayList<String>(genres);
+        keys.addAll(producers);
+
+        return keys;
+    }
+
+    boolean matches(Record record) {
+        return record.getId() >= fromId && record.getId() <= toId
+            && record.getScore() >= minScore && record.getScore() <= maxScore
+            && record.getDate().getTime() >= fromDate
+            && record.getDate().getTime() <= toDate
+            && containsAll(record.getGenres(), genres)
+            && containsAll(record.getProducers(), producers);
+    }
+
+    /*
+     * Same as matches, but on the record's bytes, its strings only
+     * decoded once every numeric condition holds.
+     */
+    boolean matches(RecordView view) {
+        if (view.getId() < fromId || view.getId() > toId)
+            return false;
+
+        float score = view.getScore();
+        long time = view.getTime();
+
+        if (score < minScore || score > maxScore || time < fromDate || time > toDate)
+            return false;
+
+        try {
+            for (String genre : genres) {
+                if (!contains(view, genre, true))
+                    return false;
+            }
+
+            for (String producer : producers) {
+                if (!contains(view, producer, false))
+                    return false;
+            }
+
+            return true;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean containsAll(String[] entries, List<String> values) {
+        for (String value : values) {
+            boolean found = false;
+
+            for (String entry : entries) {
+                if (entry.trim().equals(value)) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean contains(RecordView view, String value, boolean genre)
+        throws IOException {
+
+        int count = genre ? view.getGenreCount() : view.getProducerCount();
+
+        for (int i = 0; i < count; i++) {
+            String entry = genre ? view.getGenre(i) : view.getProducer(i);
+
+            if (entry.trim().equals(value))
+                return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        List<String> conditions = new ArrayList<String>();
+
+        if (byId())
+            conditions.add("id " + fromId + ".." + toId);
+
+        for (String genre : genres)
+            conditions.add("genre " + genre);
+
+        for (String producer : producers)
+            conditions.add("producer " + producer);
+
+        if (byScore())
+            conditions.add("score " + minScore + ".." + maxScore);
+
+        if (byDate()) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+
+            conditions.add("date " + format.format(new Date(fromDate))
+                + ".." + format.format(new Date(toDate)));
+        }
+
+        return conditions.isEmpty() ? "every record" : String.join(", ", conditions);
+    }
+}
@@ -1,19 +1,50 @@
 package main.java.database;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 
+import main.java.storage.PagedFile;
+import main.java.storage.RecordHeader;
+import main.java.storage.Varint;
+
 /*
  * Represents an "anime" entity that can be either
  * initially generated from the csv file or
  * retrieved from its byte sequence.
  */
-public class Record {
+public class Record implements Identifiable {
+    /*
+     * Byte representations other than the original one start with
+     * their version, its highest bit set. The original one starts with
+     * the id, which is never negative, so its first byte never has it.
+     *
+     * 0: <id> <name> <score> <genres> <episodes> <producers> <date>
+     * 1: <version> <id> <name> <score> <genre-ids> <episodes>
+     *    <producer-ids> <date>
+     * 2: same as 1, with varints in place of every integer
+     *
+     * Genres and producers are replaced in version 1 by their numbers
+     * in the dictionary, as varints. Version 2 also writes the id,
+     * lengths, counts and episodes as varints, and the date as its
+     * distance from DATE_BASE, in minutes whenever it's a whole amount
+     * of them, which it always is for dates read from the csv file.
+     */
+    public static final int VERSIONED = 0x80;
+
+    // Version of the byte representations written.
+    public static final int FORMAT = 2;
+
+    // Dates are written by version 2 relative to 2000-01-01 UTC.
+    private static final long DATE_BASE = 946684800000L;
+
+    private static final long MINUTE = 60_000;
+
     private boolean valid;
     private int id;
     private String name;
@@ -48,6 +79,12 @@ public class Record {
         setDate(date);
     }
 
+    // Record of its own with the same attributes, sharing no arrays or dates.
+    public Record copy() {
+        return new Record(valid, id, name, score, genres.clone(),
+            episodes, producers.clone(), new Date(date.getTime()));
+    }
+
     public boolean getValid() {
         return this.valid;
     }
@@ -56,6 +93,7 @@ public class Record {
         this.valid = valid;
     }
 
+    @Override
     public int getId() {
         return this.id;
     }
@@ -116,37 +154,30 @@ public class Record {
      * Writes the object's structured representation to the
      * "database" file.
      */
-    public long serialize(RandomAccessFile raf) throws IOException {
+    public long serialize(PagedFile raf) throws IOException {
         long pos = raf.getFilePointer();
         byte[] recordAsBytes = this.toByteArray();
         /*
          * The bytes corresponding to the record are not directly written
-         * 'cause each one is preceded by some kind of header:
-         * 
-         * <validation-bit> <byte-repr-length>
-         */
-
-        // Provides an efficient way to logically delete a record.
-        raf.writeBoolean(valid);
-
-        /*
-         * Storing this information makes it possible to skip considerable
-         * amounts of bytes, optimizing searching operations.
+         * 'cause each one is preceded by some kind of header, holding
+         * the validation bit, which provides an efficient way to
+         * logically delete a record, and the length, which makes it
+         * possible to skip considerable amounts of bytes, optimizing
+         * searching operations.
          */
-        raf.writeInt(recordAsBytes.length);
+        RecordHeader.write(raf, valid, recordAsBytes.length);
         raf.write(recordAsBytes);
         
         return pos;
     }
 
     // Used for updates that maintain the previous register's size.
-    public void serialize(RandomAccessFile raf, int byteArrayLen) 
+    public void serialize(PagedFile raf, int byteArrayLen) 
         throws IOException {
 
         byte[] recordAsBytes = toByteArray();
 
-        raf.writeBoolean(valid);
-        raf.writeInt(byteArrayLen);
+        RecordHeader.write(raf, valid, byteArrayLen);
         raf.write(recordAsBytes);
     }
 
@@ -155,31 +186,30 @@ public class Record {
         // Byte stream is closed even when an exception is thrown.
         try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream()) {
             DataOutputStream stream = new DataOutputStream(byteStream);
-    
-            stream.writeInt(id);
+            Dictionary dictionary = Dictionary.shared();
+
+            stream.writeByte(VERSIONED | FORMAT);
+            Varint.write(stream, id);
     
             writeStr(name, stream);
     
             stream.writeFloat(score);
             
-            // The byte type range is enough to store the amount of genres.
-            stream.writeByte(genres.length);
+            Varint.write(stream, genres.length);
             for (String genre : genres)
-                writeStr(genre, stream);
+                Varint.write(stream, dictionary.encode(genre));
 
-            // Should never surpass the limit of a short integer.
-            stream.writeShort(episodes);
+            Varint.write(stream, episodes);
 
-            // Byte range is enough to store the amount of producers.
-            stream.writeByte(producers.length);
+            Varint.write(stream, producers.length);
             for (String producer : producers)
-                writeStr(producer, stream);
+                Varint.write(stream, dictionary.encode(producer));
             
             /*
              * Storing the date as a numeric value drastically reduces
              * the amount of memory used.
              */
-            stream.writeLong(date.getTime());
+            Varint.writeLong(stream, encodeDate(date.getTime()));
             
             return byteStream.toByteArray();
 
@@ -189,6 +219,48 @@ public class Record {
         }
     }
     
+    /*
+     * Converts the attributes to the original byte representation,
+     * which doesn't depend on the dictionary, for data kept apart from
+     * the database file. It's still read by deserialize.
+     */
+    public byte[] toPlainByteArray() throws IOException {
+        try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream()) {
+            DataOutputStream stream = new DataOutputStream(byteStream);
+
+            stream.writeInt(id);
+            writePlainStr(name, stream);
+            stream.writeFloat(score);
+
+            stream.writeByte(genres.length);
+            for (String genre : genres)
+                writePlainStr(genre, stream);
+
+            stream.writeShort(episodes);
+
+            stream.writeByte(producers.length);
+            for (String producer : producers)
+                writePlainStr(producer, stream);
+
+            stream.writeLong(date.getTime());
+
+            return byteStream.toByteArray();
+
+        } catch (IOException e) {
+            throw new IOException(
+                "Could not transfer data to byte file", e);
+        }
+    }
+
+    private void writePlainStr(String field, DataOutputStream stream)
+        throws IOException {
+
+        byte[] strBytes = field.getBytes(StandardCharsets.UTF_8);
+
+        stream.writeInt(strBytes.length);
+        stream.write(strBytes);
+    }
+
     /*
      * Strings are also stored with a header. Having that all
      * the textual fields' values vary a lot in length, it is
@@ -199,64 +271,151 @@ public class Record {
             
         byte[] strBytes = field.getBytes("UTF-8");
 
-        // Length never surpasses the short type's limit.
-        stream.writeInt(strBytes.length);
+        Varint.write(stream, strBytes.length);
         stream.write(strBytes);
     }
+
+    /*
+     * The lowest bit tells whether the distance is in minutes or in
+     * milliseconds, the rest holding it zigzag encoded, since dates
+     * before DATE_BASE have negative ones.
+     */
+    static long encodeDate(long time) {
+        long delta = time - DATE_BASE;
+
+        if (delta % MINUTE == 0)
+            return Varint.zigzag(delta / MINUTE) << 1;
+
+        return (Varint.zigzag(delta) << 1) | 1;
+    }
+
+    static long decodeDate(long value) {
+        long delta = Varint.unzigzag(value >>> 1);
+
+        return DATE_BASE + (((value & 1) == 0) ? delta * MINUTE : delta);
+    }
     
     /*
      * Reads the bytes organized in the specified structure
      * converting them to the respective object.
      */
-    public static Record deserialize(RandomAccessFile raf)
+    public static Record deserialize(PagedFile raf)
         throws IOException {
         
         try {
-            boolean valid = raf.readBoolean();
-            
-            raf.readInt();
-            
-            int id = raf.readInt();
-            String name = readStr(raf);
-            float score = raf.readFloat();
-            
-            String[] genres = new String[raf.readByte()];
-            for (byte i = 0; i < genres.length; i++)
-                genres[i] = readStr(raf);
-            
-            short episodes = raf.readShort();
+            RecordHeader header = new RecordHeader();
+            header.read(raf);
+
+            long end = raf.getFilePointer() + header.length();
             
-            String[] producers = new String[raf.readByte()];
-            for (byte b = 0; b < producers.length; b++)
-                producers[b] = readStr(raf);
+            Record record = deserialize(raf, header.valid());
             
-            Date date = new Date(raf.readLong());
+            /*
+             * Records updated in place may be shorter than the space
+             * reserved for them, which must also be skipped.
+             */
+            raf.seek(end);
             
-            return new Record(
-                valid,
-                id,
-                name,
-                score,
-                genres,
-                episodes,
-                producers,
-                date
-            );
+            return record;
             
         } catch (IOException e) {
             throw new IOException(
                 "Error while reading data from file", e);
         }
     }
+    
+    /*
+     * Reads the byte representation generated by toByteArray, in any
+     * of its versions.
+     */
+    public static Record deserialize(DataInput in, boolean valid)
+        throws IOException {
+        
+        int first = in.readUnsignedByte();
+        int version = version(first);
+        int id = readId(in, first);
+        
+        String name = readStr(in, version);
+        float score = in.readFloat();
+        
+        String[] genres = new String[readCount(in, version)];
+        for (int i = 0; i < genres.length; i++)
+            genres[i] = readEntry(in, version);
+        
+        int episodes = (version < 2) ? in.readShort() : Varint.read(in);
+        
+        String[] producers = new String[readCount(in, version)];
+        for (int i = 0; i < producers.length; i++)
+            producers[i] = readEntry(in, version);
+        
+        Date date = new Date((version < 2)
+            ? in.readLong()
+            : decodeDate(Varint.readLong(in)));
+        
+        return new Record(
+            valid,
+            id,
+            name,
+            score,
+            genres,
+            episodes,
+            producers,
+            date
+        );
+    }
+
+    /*
+     * Reads only the id from the start of a byte representation,
+     * leaving the input right after it.
+     */
+    public static int readId(DataInput in) throws IOException {
+        return readId(in, in.readUnsignedByte());
+    }
+
+    // Returns the version of the representation starting with the byte.
+    static int version(int first) {
+        return ((first & VERSIONED) != 0) ? first & ~VERSIONED : 0;
+    }
+
+    private static int readId(DataInput in, int first) throws IOException {
+        int version = version(first);
+
+        if (version >= 2)
+            return Varint.read(in);
+
+        if (version == 1)
+            return in.readInt();
+
+        // The byte read was the first one of the id.
+        return (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+    }
+
+    // Genres and producers are either strings or dictionary numbers.
+    private static String readEntry(DataInput in, int version)
+        throws IOException {
+
+        if (version == 0)
+            return readStr(in, version);
+
+        return Dictionary.shared().decode(Varint.read(in));
+    }
+
+    // Amount of genres or producers that follows.
+    private static int readCount(DataInput in, int version)
+        throws IOException {
+
+        return (version < 2) ? in.readByte() : Varint.read(in);
+    }
 
     // Returns the required String built with the header's help.
-    private static String readStr(RandomAccessFile raf)
+    private static String readStr(DataInput in, int version)
         throws IOException {
 
-        byte[] strBytes = new byte[raf.readInt()];
-        raf.read(strBytes);
+        int length = (version < 2) ? in.readInt() : Varint.read(in);
+        byte[] strBytes = new byte[length];
+        in.readFully(strBytes);
 
-        return new String(strBytes);
+        return new String(strBytes, StandardCharsets.UTF_8);
     }
 
     @Override
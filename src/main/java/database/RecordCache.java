@@ -0,0 +1,330 @@
+package main.java.database;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Keeps recently read records by their pointer in the database file,
+ * so the ones searched often aren't read and decoded again each time.
+ * Records are copied on their way in and out, so callers may modify
+ * the ones they get without affecting each other or the cache.
+ *
+ * Each segment is an adaptive replacement cache (ARC) measured in
+ * bytes: records seen once and records seen again are kept apart, and
+ * the share of each adapts to the pointers evicted from either being
+ * requested again. Scans over the file only go through the first part,
+ * so they don't push out the records in actual use.
+ *
+ * Pointers are spread among segments with their own locks, so threads
+ * reading different records seldom wait for each other.
+ */
+public class RecordCache {
+    private static final int SEGMENTS = 16;
+
+    // Estimated bytes of a record besides its name.
+    private static final int RECORD_OVERHEAD = 120;
+    private static final int REFERENCE = 8;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public RecordCache(long capacity) {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(capacity / SEGMENTS);
+    }
+
+    // Returns a copy of the record at the pointer or null if it isn't kept.
+    public Record get(long ptr) {
+        Record record = segment(ptr).get(ptr);
+
+        if (record == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+
+        return record.copy();
+    }
+
+    public void put(long ptr, Record record) {
+        segment(ptr).put(ptr, record.copy(), weigh(record));
+    }
+
+    // Forgets the record at the pointer, once it changes or moves.
+    public void remove(long ptr) {
+        segment(ptr).remove(ptr);
+    }
+
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    // Changes the amount of bytes kept, evicting records if needed.
+    public void resize(long capacity) {
+        for (Segment segment : segments)
+            segment.resize(capacity / SEGMENTS);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Estimated bytes taken by the records kept.
+    public long bytes() {
+        long bytes = 0;
+
+        for (Segment segment : segments)
+            bytes += segment.bytes();
+
+        return bytes;
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : segments)
+            size += segment.size();
+
+        return size;
+    }
+
+    /*
+     * Genres and producers are shared through the dictionary, so only
+     * their references count.
+     */
+    static int weigh(Record record) {
+        int references = record.getGenres().length + record.getProducers().length;
+
+        return RECORD_OVERHEAD + 2 * record.getName().length() + REFERENCE * references;
+    }
+
+    private Segment segment(long ptr) {
+        int hash = (int)(ptr ^ (ptr >>> 32)) * 0x9E3779B9;
+
+        return segments[hash >>> 28];
+    }
+
+    /*
+     * Records seen once are in recent and records seen again in
+     * frequent, both ordered from the least to the most recently used.
+     * The ghost lists keep only the pointers and sizes of the records
+     * evicted from each, whose return adjusts the target size of
+     * recent.
+     */
+    private static class Segment {
+        private final LinkedHashMap<Long, Entry> recent = new LinkedHashMap<Long, Entry>();
+        private final LinkedHashMap<Long, Entry> frequent = new LinkedHashMap<Long, Entry>();
+
+        private final LinkedHashMap<Long, Integer> recentGhosts = new LinkedHashMap<Long, Integer>();
+        private final LinkedHashMap<Long, Integer> frequentGhosts = new LinkedHashMap<Long, Integer>();
+
+        private long recentBytes;
+        private long frequentBytes;
+        private long recentGhostBytes;
+        private long frequentGhostBytes;
+
+        private long capacity;
+
+        // Bytes recent should take, between zero and the capacity.
+        private long target;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Record get(long ptr) {
+            Entry entry = recent.remove(ptr);
+
+            if (entry != null) {
+                recentBytes -= entry.weight;
+            } else {
+                entry = frequent.remove(ptr);
+
+                if (entry == null)
+                    return null;
+
+                frequentBytes -= entry.weight;
+            }
+
+            frequent.put(ptr, entry);
+            frequentBytes += entry.weight;
+
+            return entry.record;
+        }
+
+        synchronized void put(long ptr, Record record, int weight) {
+            if (weight > capacity || recent.containsKey(ptr) || frequent.containsKey(ptr))
+                return;
+
+            Integer ghost = recentGhosts.remove(ptr);
+
+            if (ghost != null) {
+                // Recent was too small to keep it.
+                target = Math.min(capacity, target
+                    + Math.max(weight, weight * frequentGhostBytes / recentGhostBytes));
+
+                recentGhostBytes -= ghost;
+
+                evict(weight, false);
+                add(frequent, ptr, record, weight);
+
+            } else if ((ghost = frequentGhosts.remove(ptr)) != null) {
+                // Frequent was too small to keep it.
+                target = Math.max(0, target
+                    - Math.max(weight, weight * recentGhostBytes / frequentGhostBytes));
+
+                frequentGhostBytes -= ghost;
+
+                evict(weight, true);
+                add(frequent, ptr, record, weight);
+
+            } else {
+                evict(weight, false);
+                add(recent, ptr, record, weight);
+            }
+
+            trimGhosts();
+        }
+
+        synchronized void remove(long ptr) {
+            Entry entry = recent.remove(ptr);
+
+            if (entry != null)
+                recentBytes -= entry.weight;
+
+            entry = frequent.remove(ptr);
+
+            if (entry != null)
+                frequentBytes -= entry.weight;
+
+            Integer ghost = recentGhosts.remove(ptr);
+
+            if (ghost != null)
+                recentGhostBytes -= ghost;
+
+            ghost = frequentGhosts.remove(ptr);
+
+            if (ghost != null)
+                frequentGhostBytes -= ghost;
+        }
+
+        synchronized void clear() {
+            recent.clear();
+            frequent.clear();
+            recentGhosts.clear();
+            frequentGhosts.clear();
+
+            recentBytes = frequentBytes = 0;
+            recentGhostBytes = frequentGhostBytes = 0;
+            target = 0;
+        }
+
+        synchronized void resize(long capacity) {
+            this.capacity = capacity;
+            this.target = Math.min(target, capacity);
+
+            evict(0, false);
+            trimGhosts();
+        }
+
+        synchronized long bytes() {
+            return recentBytes + frequentBytes;
+        }
+
+        synchronized int size() {
+            return recent.size() + frequent.size();
+        }
+
+        private void add(Map<Long, Entry> list, long ptr, Record record, int weight) {
+            list.put(ptr, new Entry(record, weight));
+
+            if (list == recent) {
+                recentBytes += weight;
+            } else {
+                frequentBytes += weight;
+            }
+        }
+
+        /*
+         * Makes room for the amount of bytes specified, evicting from
+         * recent while it's over its target and from frequent otherwise.
+         */
+        private void evict(int weight, boolean frequentGhost) {
+            while (recentBytes + frequentBytes + weight > capacity
+                    && (!recent.isEmpty() || !frequent.isEmpty())) {
+
+                boolean fromRecent = !recent.isEmpty() && (frequent.isEmpty()
+                    || recentBytes > target
+                    || (frequentGhost && recentBytes >= target));
+
+                if (fromRecent) {
+                    Map.Entry<Long, Entry> first = removeFirst(recent);
+                    int evicted = first.getValue().weight;
+
+                    recentBytes -= evicted;
+                    recentGhosts.put(first.getKey(), evicted);
+                    recentGhostBytes += evicted;
+
+                } else {
+                    Map.Entry<Long, Entry> first = removeFirst(frequent);
+                    int evicted = first.getValue().weight;
+
+                    frequentBytes -= evicted;
+                    frequentGhosts.put(first.getKey(), evicted);
+                    frequentGhostBytes += evicted;
+                }
+            }
+        }
+
+        /*
+         * Recent and its ghosts are kept within the capacity and all
+         * the lists within twice of it.
+         */
+        private void trimGhosts() {
+            while (recentBytes + recentGhostBytes > capacity && !recentGhosts.isEmpty())
+                recentGhostBytes -= removeFirstGhost(recentGhosts);
+
+            while (recentBytes + frequentBytes + recentGhostBytes + frequentGhostBytes
+                    > 2 * capacity && !frequentGhosts.isEmpty())
+                frequentGhostBytes -= removeFirstGhost(frequentGhosts);
+        }
+
+        private static Map.Entry<Long, Entry> removeFirst(LinkedHashMap<Long, Entry> list) {
+            Iterator<Map.Entry<Long, Entry>> it = list.entrySet().iterator();
+            Map.Entry<Long, Entry> first = it.next();
+
+            it.remove();
+
+            return first;
+        }
+
+        private static int removeFirstGhost(LinkedHashMap<Long, Integer> list) {
+            Iterator<Integer> it = list.values().iterator();
+            int weight = it.next();
+
+            it.remove();
+
+            return weight;
+        }
+    }
+
+    private static class Entry {
+        private final Record record;
+        private final int weight;
+
+        Entry(Record record, int weight) {
+            this.record = record;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package main.java.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import main.java.storage.PagedFile;
+import main.java.storage.RecordHeader;
+import main.java.storage.Varint;
+
+/*
+ * Reads a record's fields straight from its byte representation,
+ * the one generated by Record.toByteArray, without creating a Record.
+ *
+ * A single view is meant to be reused for many records: each read
+ * replaces the bytes it holds, and its buffer is only reallocated for
+ * records larger than any before. Fields are only decoded when asked
+ * for, and the positions of the variable length ones are found once
+ * per record, the first time any of them is needed.
+ */
+public class RecordView implements Identifiable {
+    private final RecordHeader header = new RecordHeader();
+
+    private byte[] bytes = new byte[256];
+    private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+    private boolean valid;
+
+    // Version of the representation and the offsets of its id and name.
+    private int version;
+    private int base;
+    private int name;
+
+    // Amount of bytes held, which may include unused ones at the end.
+    private int length;
+
+    /*
+     * Offsets of the fields after the name, or -1 if not found yet.
+     * Those of genres and producers are where their entries start,
+     * right after their counts.
+     */
+    private int score = -1;
+    private int genreCount;
+    private int genres;
+    private int episodes;
+    private int producerCount;
+    private int producers;
+    private int date;
+
+    /*
+     * Reads the record at the file pointer, along with its header,
+     * leaving the pointer after it.
+     *
+     * <record-header> <byte-repr>
+     */
+    public boolean readFrom(PagedFile raf) throws IOException {
+        header.read(raf);
+        readFrom(raf, header.length(), header.valid());
+
+        return header.valid();
+    }
+
+    // Reads a byte representation of the length specified.
+    public void readFrom(DataInput in, int length, boolean valid)
+            throws IOException {
+
+        if (length > bytes.length) {
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+            buffer = ByteBuffer.wrap(bytes);
+        }
+
+        in.readFully(bytes, 0, length);
+
+        this.length = length;
+        this.valid = valid;
+        this.version = Record.version(bytes[0] & 0xFF);
+        this.base = (version == 0) ? 0 : 1;
+        this.name = (version < 2)
+            ? base + Integer.BYTES
+            : base + Varint.size(bytes, base);
+        this.score = -1;
+    }
+
+    // Writes the record the same way it was read.
+    public void writeTo(PagedFile raf) throws IOException {
+        RecordHeader.write(raf, valid, length);
+        raf.write(bytes, 0, length);
+    }
+
+    public boolean getValid() {
+        return this.valid;
+    }
+
+    @Override
+    public int getId() {
+        if (version < 2)
+            return buffer.getInt(base);
+
+        return Varint.read(bytes, base);
+    }
+
+    public String getName() {
+        return string(name);
+    }
+
+    public float getScore() {
+        offsets();
+
+        return buffer.getFloat(score);
+    }
+
+    public int getGenreCount() {
+        offsets();
+
+        return genreCount;
+    }
+
+    public String getGenre(int i) throws IOException {
+        offsets();
+
+        return entry(skipEntries(genres, i));
+    }
+
+    public int getEpisodes() {
+        offsets();
+
+        if (version < 2)
+            return buffer.getShort(episodes);
+
+        return Varint.read(bytes, episodes);
+    }
+
+    public int getProducerCount() {
+        offsets();
+
+        return producerCount;
+    }
+
+    public String getProducer(int i) throws IOException {
+        offsets();
+
+        return entry(skipEntries(producers, i));
+    }
+
+    // Spares the creation of a Date when only comparing them.
+    public long getTime() {
+        offsets();
+
+        if (version < 2)
+            return buffer.getLong(date);
+
+        return Record.decodeDate(Varint.readLong(bytes, date));
+    }
+
+    public Date getDate() {
+        return new Date(getTime());
+    }
+
+    // Amount of bytes actually used by the record.
+    public int size() {
+        offsets();
+
+        if (version < 2)
+            return date + Long.BYTES;
+
+        return date + Varint.size(bytes, date);
+    }
+
+    // Decodes every field into a new record.
+    public Record toRecord() throws IOException {
+        return Record.deserialize(
+            new DataInputStream(new ByteArrayInputStream(bytes, 0, length)),
+            valid);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toRecord().toString();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void offsets() {
+        if (score != -1)
+            return;
+
+        score = skip(name, 1);
+
+        int offset = score + Float.BYTES;
+
+        genreCount = count(offset);
+        genres = offset + countSize(offset);
+        episodes = skipEntries(genres, genreCount);
+
+        offset = episodes + ((version < 2)
+            ? Short.BYTES
+            : Varint.size(bytes, episodes));
+
+        producerCount = count(offset);
+        producers = offset + countSize(offset);
+        date = skipEntries(producers, producerCount);
+    }
+
+    // Amount of genres or producers at the offset.
+    private int count(int offset) {
+        return (version < 2) ? bytes[offset] : Varint.read(bytes, offset);
+    }
+
+    private int countSize(int offset) {
+        return (version < 2) ? 1 : Varint.size(bytes, offset);
+    }
+
+    // Returns the offset after the amount of genres or producers specified.
+    private int skipEntries(int offset, int entries) {
+        if (version == 0)
+            return skip(offset, entries);
+
+        // The last byte of each varint is the only one without the highest bit.
+        for (int i = 0; i < entries; offset++) {
+            if (bytes[offset] >= 0)
+                i++;
+        }
+
+        return offset;
+    }
+
+    private String entry(int offset) throws IOException {
+        if (version == 0)
+            return string(offset);
+
+        return Dictionary.shared().decode(Varint.read(bytes, offset));
+    }
+
+    // Returns the offset after the amount of strings specified.
+    private int skip(int offset, int strings) {
+        for (int i = 0; i < strings; i++) {
+            if (version < 2)
+                offset += Integer.BYTES + buffer.getInt(offset);
+            else
+                offset += Varint.size(bytes, offset) + Varint.read(bytes, offset);
+        }
+
+        return offset;
+    }
+
+    // Strings are preceded by their lengths, as ints or as varints.
+    private String string(int offset) {
+        if (version < 2) {
+            return new String(
+                bytes,
+                offset + Integer.BYTES,
+                buffer.getInt(offset),
+                StandardCharsets.UTF_8);
+        }
+
+        return new String(
+            bytes,
+            offset + Varint.size(bytes, offset),
+            Varint.read(bytes, offset),
+            StandardCharsets.UTF_8);
+    }
+}
@@ -2,11 +2,11 @@ package main.java.database;
 
 public interface Sorting {
     
-    default void quickSort(Record[] records, int left, int right ) {
+    default <T extends Identifiable> void quickSort(T[] records, int left, int right ) {
         int i = left;
         int j = right;
         
-        Record pivot = records[(right + left)/2];
+        T pivot = records[(right + left)/2];
         
         while (i <= j) {
             while (records[i].getId() < pivot.getId())
@@ -29,8 +29,8 @@ public interface Sorting {
             quickSort(records, i, right);
     }
 
-    private static void swap(Record[] records, int i, int j) {
-        Record tmp = records[i];
+    private static <T> void swap(T[] records, int i, int j) {
+        T tmp = records[i];
         records[i] = records[j];
         records[j] = tmp;
     }
@@ -0,0 +1,150 @@
+package main.java.database;
+
+import java.util.Arrays;
+
+import main.java.structures.btree.BTree;
+import main.java.structures.column.ColumnStore;
+
+/*
+ * Distribution of the ids, scores and dates of the records, from which
+ * the planner estimates how many records each condition leaves.
+ *
+ * Each attribute is summarized by an equi-depth histogram: the values
+ * splitting the records, in order, into buckets of the same size.
+ * Within a bucket, values are assumed to be evenly spread, and to be
+ * taken by as many records each, given the distinct ones it holds.
+ */
+final class Statistics {
+    static final int BUCKETS = 64;
+
+    // Records changed in the database before they were collected.
+    final long changes;
+
+    final int records;
+
+    private final Histogram ids;
+    private final Histogram scores;
+    private final Histogram dates;
+
+    Statistics(ColumnStore columns, long changes) {
+        int size = columns.size();
+        int count = 0;
+
+        long[] ids = new long[size];
+        long[] scores = new long[size];
+        long[] dates = new long[size];
+
+        for (int id = 0; id < size; id++) {
+            if (!columns.contains(id))
+                continue;
+
+            ids[count] = id;
+            scores[count] = BTree.key(columns.score(id));
+            dates[count] = columns.date(id);
+            count++;
+        }
+
+        this.changes = changes;
+        this.records = count;
+        this.ids = new Histogram(ids, count);
+        this.scores = new Histogram(scores, count);
+        this.dates = new Histogram(dates, count);
+    }
+
+    // Records with ids in the range, inclusive.
+    double ids(long from, long to) {
+        return ids.between(from, to);
+    }
+
+    double scores(float min, float max) {
+        return scores.between(BTree.key(min), BTree.key(max));
+    }
+
+    double dates(long from, long to) {
+        return dates.between(from, to);
+    }
+
+    private final class Histogram {
+        // Values at the edges of the buckets, the first and last included.
+        private final long[] bounds;
+
+        // Distinct values within each bucket, its edges included.
+        private final int[] distinct;
+
+        Histogram(long[] values, int count) {
+            this.bounds = new long[(count == 0) ? 0 : BUCKETS + 1];
+            this.distinct = new int[BUCKETS];
+
+            if (count == 0)
+                return;
+
+            Arrays.sort(values, 0, count);
+
+            for (int i = 0; i <= BUCKETS; i++)
+                bounds[i] = values[start(i, count)];
+
+            for (int i = 0; i < BUCKETS; i++) {
+                distinct[i] = 1;
+
+                for (int j = start(i, count) + 1; j <= start(i + 1, count); j++) {
+                    if (values[j] != values[j - 1])
+                        distinct[i]++;
+                }
+            }
+        }
+
+        // Position of the first value of the bucket among those sorted.
+        private int start(int bucket, int count) {
+            return (int)((long)bucket * (count - 1) / BUCKETS);
+        }
+
+        double between(long from, long to) {
+            if (bounds.length == 0 || from > to)
+                return 0;
+
+            // Ranges over a single value take its share of the buckets.
+            if (from == to)
+                return equal(from);
+
+            return rank(to, true) - rank(from, false);
+        }
+
+        /*
+         * Estimated amount of records with the value, from each bucket
+         * that holds it, which a value filling several buckets spans.
+         */
+        private double equal(long value) {
+            double bucket = (double)records / BUCKETS;
+            double rows = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                if (value >= bounds[i] && value <= bounds[i + 1])
+                    rows += bucket / distinct[i];
+            }
+
+            return Math.min(rows, records);
+        }
+
+        // Estimated amount of values below the one given, or equal to it too.
+        private double rank(long value, boolean inclusive) {
+            double bucket = (double)records / BUCKETS;
+            double rank = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                long low = bounds[i];
+                long high = bounds[i + 1];
+
+                if (value > high || (inclusive && value == high)) {
+                    rank += bucket;
+                } else if (value > low) {
+                    rank += bucket * ((double)value - low) / ((double)high - low);
+                    break;
+                } else {
+                    break;
+                }
+            }
+
+            return rank;
+        }
+    }
+}
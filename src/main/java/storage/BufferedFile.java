@@ -0,0 +1,137 @@
+package main.java.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Keeps the most recently used pages of the file in heap buffers.
+ *
+ * Modified pages are only written back when evicted, flushed or when
+ * the file is closed, and only after passing the barrier, if any.
+ *
+ * Evicted buffers aren't reused, since a thread reading may still hold
+ * the page, whose content stays right until the file is written again.
+ */
+public class BufferedFile extends PagedFile {
+    public static final int PAGE_SIZE = 8192;
+
+    // Enough for the hot pages of the indexes and a sequential scan.
+    private static final int CACHE_PAGES = 64;
+
+    private final int capacity;
+
+    // Pages ordered from the least to the most recently used.
+    private final Map<Long, Page> pages;
+
+    public BufferedFile(String name) throws IOException {
+        this(new File(name));
+    }
+
+    public BufferedFile(File file) throws IOException {
+        this(file, CACHE_PAGES);
+    }
+
+    public BufferedFile(File file, int capacity) throws IOException {
+        super(file, PAGE_SIZE);
+
+        this.capacity = capacity;
+        this.pages = new LinkedHashMap<Long, Page>(capacity, 0.75f, true);
+    }
+
+    @Override
+    public synchronized void setLength(long newLength) throws IOException {
+        barrier();
+        flush();
+
+        for (Page page : pages.values())
+            invalidate(page);
+
+        pages.clear();
+
+        if (newLength < channel.size()) {
+            channel.truncate(newLength);
+        } else if (newLength > channel.size()) {
+            channel.write(ByteBuffer.allocate(1), newLength - 1);
+        }
+
+        length = newLength;
+
+        if (getFilePointer() > newLength)
+            seek(newLength);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        for (Page page : pages.values())
+            writeBack(page);
+    }
+
+    @Override
+    protected synchronized Page fetch(long start) throws IOException {
+        Page page = pages.get(start);
+
+        if (page == null) {
+            if (pages.size() >= capacity)
+                evict();
+
+            page = new Page(ByteBuffer.allocate(PAGE_SIZE), start);
+
+            load(page, start);
+            pages.put(start, page);
+        }
+
+        return page;
+    }
+
+    private void evict() throws IOException {
+        Iterator<Page> it = pages.values().iterator();
+        Page page = it.next();
+
+        it.remove();
+        writeBack(page);
+        invalidate(page);
+    }
+
+    private void load(Page page, long start) throws IOException {
+        try {
+            ByteBuffer buffer = page.view;
+            buffer.clear();
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) == -1)
+                    break;
+            }
+
+            Arrays.fill(page.buffer.array(), buffer.position(), PAGE_SIZE, (byte)0);
+
+        } catch (IOException e) {
+            throw new IOException("Unable to read page at " + start, e);
+        }
+    }
+
+    private void writeBack(Page page) throws IOException {
+        if (!page.dirty)
+            return;
+
+        barrier();
+
+        try {
+            ByteBuffer buffer = page.view;
+            buffer.clear();
+            buffer.limit(limit(page));
+
+            while (buffer.hasRemaining())
+                channel.write(buffer, page.start + buffer.position());
+
+            page.dirty = false;
+
+        } catch (IOException e) {
+            throw new IOException("Unable to write page at " + page.start, e);
+        }
+    }
+}
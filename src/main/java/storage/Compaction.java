@@ -0,0 +1,31 @@
+package main.java.storage;
+
+import java.io.IOException;
+
+/*
+ * Gives back the space wasted by deleted records, moving the valid ones
+ * closer together. It's performed in steps of bounded size, so other
+ * operations can take place between them.
+ */
+public interface Compaction {
+    /*
+     * Processes up to the amount of records specified, returning false
+     * once there's nothing else to be done.
+     */
+    boolean step(int records, Relocation relocation) throws IOException;
+
+    boolean done();
+
+    // Fraction of the work already done, from 0 to 1.
+    double progress() throws IOException;
+
+    int moved();
+
+    // Bytes given back so far.
+    long reclaimed();
+
+    // Notified for every record moved, whose previous pointer is invalid.
+    interface Relocation {
+        void moved(long from, long to) throws IOException;
+    }
+}
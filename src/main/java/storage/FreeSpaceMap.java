@@ -0,0 +1,138 @@
+package main.java.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ * Keeps track of the free regions of a file, so new content can be
+ * placed in them instead of at its end.
+ *
+ * Regions are grouped in buckets by size class, the powers of two
+ * their sizes fall between. The best fit for a request is searched in
+ * its own class and, when there's none, the smallest region of the
+ * next non-empty class is taken, as any of them fits.
+ */
+public class FreeSpaceMap {
+    private static final int CLASSES = Integer.SIZE;
+
+    // Sizes are placed above the position, so regions sort by size first.
+    private static final int POSITION_BITS = 40;
+
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+    private final TreeMap<Long, Integer> regions;
+
+    private final List<TreeSet<Long>> buckets = new ArrayList<TreeSet<Long>>(CLASSES);
+
+    // Sum of the sizes of every region.
+    private long bytes;
+
+    public FreeSpaceMap() {
+        this.regions = new TreeMap<Long, Integer>();
+
+        for (int i = 0; i < CLASSES; i++)
+            buckets.add(new TreeSet<Long>());
+    }
+
+    public void add(long pos, int size) {
+        if (regions.put(pos, size) != null)
+            throw new IllegalStateException("Region at " + pos + " already free");
+
+        buckets.get(sizeClass(size)).add(key(pos, size));
+        bytes += size;
+    }
+
+    // Returns the size of the region removed or -1 if there's none.
+    public int remove(long pos) {
+        Integer size = regions.remove(pos);
+
+        if (size == null)
+            return -1;
+
+        buckets.get(sizeClass(size)).remove(key(pos, size));
+        bytes -= size;
+
+        return size;
+    }
+
+    /*
+     * Returns the position of the smallest region with at least the
+     * size specified, or -1 if there's none.
+     */
+    public long find(int size) {
+        int sizeClass = sizeClass(size);
+        Long fit = buckets.get(sizeClass).ceiling(key(0, size));
+
+        for (int i = sizeClass + 1; fit == null && i < CLASSES; i++) {
+            if (!buckets.get(i).isEmpty())
+                fit = buckets.get(i).first();
+        }
+
+        return (fit == null) ? -1 : fit & POSITION_MASK;
+    }
+
+    // Returns the size of the region at the position or -1 if it's not free.
+    public int size(long pos) {
+        Integer size = regions.get(pos);
+
+        return (size == null) ? -1 : size;
+    }
+
+    // Returns the position of the closest region before the one specified.
+    public long before(long pos) {
+        Long prev = regions.lowerKey(pos);
+
+        return (prev == null) ? -1 : prev;
+    }
+
+    public int count() {
+        return regions.size();
+    }
+
+    public long bytes() {
+        return this.bytes;
+    }
+
+    public void clear() {
+        regions.clear();
+
+        for (TreeSet<Long> bucket : buckets)
+            bucket.clear();
+
+        bytes = 0;
+    }
+
+    // <count> [<position> <size>]...
+    public void save(DataOutput out) throws IOException {
+        out.writeInt(regions.size());
+
+        for (Map.Entry<Long, Integer> region : regions.entrySet()) {
+            out.writeLong(region.getKey());
+            out.writeInt(region.getValue());
+        }
+    }
+
+    public static FreeSpaceMap load(DataInput in) throws IOException {
+        FreeSpaceMap map = new FreeSpaceMap();
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++)
+            map.add(in.readLong(), in.readInt());
+
+        return map;
+    }
+
+    private static int sizeClass(int size) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(Math.max(size, 1));
+    }
+
+    private static long key(long pos, int size) {
+        return ((long)size << POSITION_BITS) | pos;
+    }
+}
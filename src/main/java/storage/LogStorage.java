@@ -0,0 +1,541 @@
+package main.java.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import main.java.database.Record;
+import main.java.database.RecordView;
+
+/*
+ * Original layout of the database file, where records are appended one
+ * after the other, each preceded by its own header:
+ *
+ * <last-id> [<record-header> <byte-repr>]...
+ *
+ * Pointers are the records' byte offsets in the file.
+ *
+ * Space left by deleted records, which keep their header, is tracked
+ * by a free-space map and reused by later insertions and updates.
+ * Adjacent free regions are merged and the ones at the end of the file
+ * are cut from it. Regions are measured with their headers, since
+ * these vary in size.
+ */
+public class LogStorage implements StorageEngine {
+    private static final int HEADER = Integer.BYTES;
+
+    // Smallest region worth tracking, its header included.
+    private static final int MIN_FREE = 24;
+
+    // Identifies the free-space maps saved with regions measured this way.
+    private static final int FREE_SPACE_VERSION = 2;
+
+    private final PagedFile raf;
+
+    private final FreeSpaceMap free;
+
+    // Where the free-space map is kept between executions, if anywhere.
+    private final File freeFile;
+
+    private boolean freeDirty;
+
+    private LogCompaction compaction;
+
+    public LogStorage(PagedFile raf) throws IOException {
+        this(raf, null);
+    }
+
+    public LogStorage(PagedFile raf, File freeFile) throws IOException {
+        this.raf = raf;
+        this.freeFile = freeFile;
+        this.free = loadFreeSpace();
+    }
+
+    @Override
+    public int getLastId() throws IOException {
+        try {
+            if (raf.length() < HEADER)
+                return 0;
+
+            raf.seek(0);
+
+            return raf.readInt();
+
+        } catch (IOException e) {
+            throw new IOException("Unable to retrieve file header", e);
+        }
+    }
+
+    @Override
+    public void setLastId(int lastId) throws IOException {
+        raf.seek(0);
+        raf.writeInt(lastId);
+    }
+
+    /*
+     * Records are placed in the free region that best fits them, being
+     * inserted at the end only when there's none.
+     */
+    @Override
+    public long insert(Record record) throws IOException {
+        if (raf.length() < HEADER)
+            setLastId(0);
+
+        byte[] bytes = record.toByteArray();
+        long ptr = free.find(RecordHeader.total(bytes.length));
+
+        if (ptr != -1) {
+            place(ptr, free.remove(ptr), bytes);
+            freeDirty = true;
+
+            return ptr;
+        }
+
+        return append(record);
+    }
+
+    @Override
+    public long append(Record record) throws IOException {
+        if (raf.length() < HEADER)
+            setLastId(0);
+
+        long ptr = raf.length();
+
+        raf.seek(ptr);
+        record.serialize(raf);
+
+        return ptr;
+    }
+
+    /*
+     * Every record is serialized into a single buffer first, which is
+     * then written to the end of the file at once.
+     */
+    @Override
+    public long[] appendAll(List<Record> records) throws IOException {
+        if (raf.length() < HEADER)
+            setLastId(0);
+
+        long[] ptrs = new long[records.size()];
+        long end = raf.length();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        for (int i = 0; i < ptrs.length; i++) {
+            byte[] bytes = records.get(i).toByteArray();
+
+            ptrs[i] = end + buffer.size();
+
+            RecordHeader.write(out, records.get(i).getValid(), bytes.length);
+            out.write(bytes);
+        }
+
+        raf.seek(end);
+        raf.write(buffer.toByteArray());
+
+        return ptrs;
+    }
+
+    @Override
+    public Record read(long ptr) throws IOException {
+        raf.seek(ptr);
+
+        Record record = Record.deserialize(raf);
+
+        return record.getValid() ? record : null;
+    }
+
+    @Override
+    public boolean read(long ptr, RecordView view) throws IOException {
+        raf.seek(ptr);
+
+        return view.readFrom(raf);
+    }
+
+    /*
+     * Records that still fit in the space they occupy, possibly along
+     * with a free region right after it, are rewritten in place,
+     * otherwise they're moved somewhere else.
+     */
+    @Override
+    public long update(long ptr, Record record) throws IOException {
+        int total = readHeader(ptr).total();
+        byte[] bytes = record.toByteArray();
+        int required = RecordHeader.total(bytes.length);
+
+        if (required <= total) {
+            place(ptr, total, bytes);
+
+            return ptr;
+        }
+
+        long next = ptr + total;
+        int nextTotal = free.size(next);
+
+        if (nextTotal != -1 && total + nextTotal >= required) {
+            free.remove(next);
+            place(ptr, total + nextTotal, bytes);
+            freeDirty = true;
+
+            return ptr;
+        }
+
+        /*
+         * The new copy is written before the old one is discarded,
+         * so the record is never missing from the file.
+         */
+        long newPtr = insert(record);
+        delete(ptr);
+
+        return newPtr;
+    }
+
+    // Provides an efficient way to logically delete a record.
+    @Override
+    public void delete(long ptr) throws IOException {
+        RecordHeader header = readHeader(ptr);
+
+        if (header.valid())
+            release(ptr, header.total());
+    }
+
+    @Override
+    public int idAt(long ptr) throws IOException {
+        return readHeader(ptr).valid() ? Record.readId(raf) : -1;
+    }
+
+    @Override
+    public long first() throws IOException {
+        return seekValid(HEADER);
+    }
+
+    @Override
+    public long next(long ptr) throws IOException {
+        return seekValid(ptr + readHeader(ptr).total());
+    }
+
+    @Override
+    public Compaction compaction() throws IOException {
+        if (compaction == null)
+            compaction = new LogCompaction();
+
+        return compaction;
+    }
+
+    @Override
+    public void clear() throws IOException {
+        compaction = null;
+
+        int lastId = getLastId();
+
+        raf.setLength(0);
+        setLastId(lastId);
+
+        free.clear();
+        freeDirty = true;
+    }
+
+    @Override
+    public PagedFile getFile() {
+        return this.raf;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        raf.flush();
+        saveFreeSpace();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            saveFreeSpace();
+
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Free regions currently available for new records.
+    public FreeSpaceMap getFreeSpace() {
+        return this.free;
+    }
+
+    /*
+     * Returns the position of the first valid record from the one
+     * specified on, skipping the deleted ones without reading them.
+     */
+    private long seekValid(long pos) throws IOException {
+        while (pos < raf.length()) {
+            RecordHeader header = readHeader(pos);
+
+            if (header.valid())
+                return pos;
+
+            pos += header.total();
+        }
+
+        return -1;
+    }
+
+    /*
+     * Reads the header at the position, leaving the file after it. Each
+     * read gets its own header, as several threads may be reading.
+     */
+    private RecordHeader readHeader(long pos) throws IOException {
+        RecordHeader header = new RecordHeader();
+
+        raf.seek(pos);
+        header.read(raf);
+
+        return header;
+    }
+
+    /*
+     * Writes the record to a region of the size specified. What's left
+     * of it becomes a free region when large enough, otherwise it
+     * remains as part of the record.
+     */
+    private void place(long pos, int total, byte[] bytes) throws IOException {
+        int required = RecordHeader.total(bytes.length);
+
+        raf.seek(pos);
+
+        if (total - required < MIN_FREE) {
+            RecordHeader.writeRegion(raf, true, total);
+            raf.write(bytes);
+            return;
+        }
+
+        RecordHeader.write(raf, true, bytes.length);
+        raf.write(bytes);
+
+        release(pos + required, total - required);
+    }
+
+    /*
+     * Marks the region as free, merging it with the free regions
+     * around it.
+     */
+    private void release(long pos, int total) throws IOException {
+        int nextTotal = free.remove(pos + total);
+
+        if (nextTotal != -1)
+            total += nextTotal;
+
+        long prev = free.before(pos);
+
+        if (prev != -1 && prev + free.size(prev) == pos) {
+            total += free.remove(prev);
+            pos = prev;
+        }
+
+        freeDirty = true;
+
+        // Nothing follows the region, so the file just gets shorter.
+        if (pos + total == raf.length()) {
+            raf.setLength(pos);
+            return;
+        }
+
+        raf.seek(pos);
+        RecordHeader.writeRegion(raf, false, total);
+
+        free.add(pos, total);
+    }
+
+    /*
+     * The saved map is only trusted if the file still has the length
+     * it had when the map was saved, otherwise the free regions are
+     * found again by traversing the file.
+     *
+     * A crash may leave a mapped file with the zeros it reserved past
+     * the last record, and a torn record at its end, so the file is
+     * cut where the records stop.
+     *
+     * <version> <file-length> <free-space-map>
+     */
+    private FreeSpaceMap loadFreeSpace() throws IOException {
+        if (freeFile != null && freeFile.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(freeFile)))) {
+
+                if (in.readInt() == FREE_SPACE_VERSION
+                        && in.readLong() == raf.length())
+                    return FreeSpaceMap.load(in);
+
+            } catch (IOException e) {
+                // Rebuilt below.
+            }
+        }
+
+        FreeSpaceMap map = new FreeSpaceMap();
+        long pos = HEADER;
+
+        while (pos < raf.length()) {
+            RecordHeader header;
+
+            try {
+                header = readHeader(pos);
+
+            } catch (EOFException e) {
+                break;
+            }
+
+            if (header.blank() || pos + header.total() > raf.length())
+                break;
+
+            if (!header.valid())
+                map.add(pos, header.total());
+
+            pos += header.total();
+        }
+
+        if (pos < raf.length())
+            raf.setLength(pos);
+
+        freeDirty = true;
+
+        return map;
+    }
+
+    private void saveFreeSpace() throws IOException {
+        if (freeFile == null || !freeDirty)
+            return;
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(freeFile)))) {
+
+            out.writeInt(FREE_SPACE_VERSION);
+            out.writeLong(raf.length());
+            free.save(out);
+
+            freeDirty = false;
+
+        } catch (IOException e) {
+            throw new IOException("Unable to save the free-space map", e);
+        }
+    }
+
+    /*
+     * Slides the valid records towards the start of the file, dropping
+     * the deleted ones and the unused bytes of the others. Between the
+     * records already moved and the ones still to be moved there's a
+     * gap that, between steps, is written as a single deleted record,
+     * so the file can still be traversed. It's kept out of the
+     * free-space map, while free regions after it are discarded once
+     * reached.
+     */
+    private class LogCompaction implements Compaction {
+        // Next record to be moved and where to.
+        private long src = HEADER;
+        private long dst = HEADER;
+
+        private int moved;
+
+        @Override
+        public boolean step(int records, Relocation relocation)
+                throws IOException {
+
+            if (done())
+                return false;
+
+            try {
+                for (int i = 0; i < records && src < raf.length(); i++) {
+                    RecordHeader header = readHeader(src);
+
+                    long end = src + header.total();
+
+                    if (!header.valid()) {
+                        free.remove(src);
+                        freeDirty = true;
+
+                        src = end;
+                        continue;
+                    }
+
+                    /*
+                     * The record is copied as is, its size found by
+                     * decoding it, which leaves the unused bytes behind.
+                     */
+                    byte[] bytes = new byte[header.length()];
+                    raf.readFully(bytes);
+
+                    ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+                    Record.deserialize(new DataInputStream(in), true);
+
+                    int size = bytes.length - in.available();
+                    int total = RecordHeader.total(size);
+
+                    // A gap too small for a header is kept by the record.
+                    if (end - (dst + total) < RecordHeader.MIN_SIZE)
+                        total = (int)(end - dst);
+
+                    if (src != dst || total != header.total()) {
+                        raf.seek(dst);
+                        RecordHeader.writeRegion(raf, true, total);
+                        raf.write(bytes, 0, size);
+                    }
+
+                    if (src != dst) {
+                        relocation.moved(src, dst);
+                        moved++;
+                    }
+
+                    dst += total;
+                    src = end;
+                }
+
+                if (src >= raf.length()) {
+                    raf.setLength(dst);
+                    compaction = null;
+
+                    return false;
+                }
+
+                if (src > dst) {
+                    raf.seek(dst);
+                    RecordHeader.writeRegion(raf, false, (int)(src - dst));
+                }
+
+                return true;
+
+            } catch (IOException e) {
+                throw new IOException("Error while compacting at " + src, e);
+            }
+        }
+
+        @Override
+        public boolean done() {
+            return compaction != this;
+        }
+
+        @Override
+        public double progress() throws IOException {
+            if (done())
+                return 1;
+
+            return (double)(src - HEADER) / Math.max(1, raf.length() - HEADER);
+        }
+
+        @Override
+        public int moved() {
+            return this.moved;
+        }
+
+        @Override
+        public long reclaimed() {
+            return src - dst;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package main.java.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Maps the file into memory in large segments, so fields are decoded
+ * straight from the mapping without being copied or read by the
+ * operating system on each access.
+ *
+ * Mapping a segment that goes past the end of the file grows it, and so
+ * do writes past its end. The file is always truncated back to the
+ * length actually written once flushed, while the mappings are kept, so
+ * an append only has to grow the file again instead of remapping it.
+ *
+ * The operating system may write modified pages back at any time, so a
+ * barrier is only passed before truncating and syncing, and can't keep
+ * the mapped pages from reaching the disk before the log does.
+ */
+public class MappedFile extends PagedFile {
+    public static final int SEGMENT_SIZE = 1 << 24;
+
+    private final List<Page> segments;
+
+    // Length of the file itself, which may be past the logical one.
+    private long size;
+
+    public MappedFile(String name) throws IOException {
+        this(new File(name));
+    }
+
+    public MappedFile(File file) throws IOException {
+        super(file, SEGMENT_SIZE);
+
+        this.segments = new ArrayList<Page>();
+        this.size = channel.size();
+    }
+
+    @Override
+    public void setLength(long newLength) throws IOException {
+        barrier();
+
+        if (newLength > length) {
+            reserve(newLength);
+        } else {
+            channel.truncate(newLength);
+            size = newLength;
+        }
+
+        length = newLength;
+
+        if (getFilePointer() > newLength)
+            seek(newLength);
+    }
+
+    /*
+     * Every write is already in the mapping, so only the space reserved
+     * past the logical length has to be given back.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (size > length) {
+            channel.truncate(length);
+            size = length;
+        }
+    }
+
+    // Mapped pages are only guaranteed to reach the disk once forced.
+    @Override
+    public void sync() throws IOException {
+        barrier();
+
+        for (Page segment : segments) {
+            if (segment != null)
+                ((MappedByteBuffer)segment.buffer).force();
+        }
+
+        super.sync();
+    }
+
+    @Override
+    protected synchronized Page fetch(long start) throws IOException {
+        int i = (int)(start / SEGMENT_SIZE);
+
+        while (segments.size() <= i)
+            segments.add(null);
+
+        Page page = segments.get(i);
+
+        if (page == null) {
+            try {
+                page = new Page(
+                    channel.map(MapMode.READ_WRITE, start, SEGMENT_SIZE), start);
+
+            } catch (IOException e) {
+                throw new IOException("Unable to map segment at " + start, e);
+            }
+
+            segments.set(i, page);
+            size = channel.size();
+        }
+
+        return page;
+    }
+
+    /*
+     * Accessing a mapping past the end of the file is an error, so it
+     * grows up to the end of the segment being written before that.
+     */
+    @Override
+    protected void reserve(long end) throws IOException {
+        if (end <= size)
+            return;
+
+        long newSize = ((end - 1) / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+
+        channel.write(ByteBuffer.allocate(1), newSize - 1);
+        size = newSize;
+    }
+}
@@ -0,0 +1,580 @@
+package main.java.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Random access file whose content is read and written through
+ * fixed-size pages kept in memory, so that reading or writing a single
+ * field doesn't cost a system call. It mirrors the RandomAccessFile
+ * methods used throughout the project, so it can take its place
+ * directly.
+ *
+ * Subclasses define where the pages come from.
+ *
+ * Each thread has its own file pointer, so seek followed by reads acts
+ * as a positional read, and any number of threads may read at once.
+ * Writes must not happen along with any other access, which is left to
+ * the owner of the file.
+ */
+public abstract class PagedFile implements DataInput, DataOutput, Closeable {
+    protected final FileChannel channel;
+    protected final int pageSize;
+
+    // Logical length, which may include bytes not yet in the file.
+    protected long length;
+
+    // Position of each thread in the file.
+    private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+
+    // Cursor of the last thread to use the file, sparing most lookups.
+    private Cursor last;
+
+    // Times any thread moved on to another page, for measuring queries.
+    private final LongAdder fetches = new LongAdder();
+
+    // Passed before modified pages are written to the file, if set.
+    private volatile Barrier barrier;
+
+    protected PagedFile(File file, int pageSize) throws IOException {
+        this.channel = FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+        this.pageSize = pageSize;
+        this.length = channel.size();
+    }
+
+    // Returns the page that begins at the position specified.
+    protected abstract Page fetch(long start) throws IOException;
+
+    /*
+     * Makes sure the bytes up to the position specified can be
+     * written to the pages holding them.
+     */
+    protected void reserve(long end) throws IOException {
+    }
+
+    // Writes every modified page back to the file.
+    public abstract void flush() throws IOException;
+
+    public abstract void setLength(long newLength) throws IOException;
+
+    /*
+     * Flushes the file and waits until its content, metadata included,
+     * is on the disk.
+     */
+    public void sync() throws IOException {
+        flush();
+        channel.force(true);
+    }
+
+    /*
+     * The page won't be returned by fetch anymore, so threads still
+     * holding it must fetch its position again.
+     */
+    protected void invalidate(Page page) {
+        page.dropped = true;
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0)
+            throw new IOException("Negative seek offset");
+
+        cursor().pos = pos;
+    }
+
+    public long getFilePointer() throws IOException {
+        return cursor().pos;
+    }
+
+    public long length() throws IOException {
+        return this.length;
+    }
+
+    /*
+     * Pages fetched so far, counting each time a file pointer moves on
+     * to another page, whether it was in memory or not.
+     */
+    public long fetches() {
+        return fetches.sum();
+    }
+
+    /*
+     * Sets what must happen before modified pages reach the file, such
+     * as the log describing the changes being on the disk.
+     */
+    public void setBarrier(Barrier barrier) {
+        this.barrier = barrier;
+    }
+
+    public FileChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+
+        } finally {
+            channel.close();
+        }
+    }
+
+    public int read() throws IOException {
+        Cursor cursor = cursor();
+
+        if (cursor.pos >= length)
+            return -1;
+
+        Page page = page(cursor);
+        int offset = (int)(cursor.pos - page.start);
+
+        cursor.pos++;
+
+        return page.buffer.get(offset) & 0xFF;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        Cursor cursor = cursor();
+
+        if (cursor.pos >= length)
+            return -1;
+
+        int total = 0;
+
+        while (total < len && cursor.pos < length) {
+            Page page = page(cursor);
+            int offset = (int)(cursor.pos - page.start);
+            int n = Math.min(limit(page) - offset, len - total);
+
+            cursor.view.clear();
+            cursor.view.position(offset);
+            cursor.view.get(b, off + total, n);
+
+            cursor.pos += n;
+            total += n;
+        }
+
+        return total;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        int n = read(b, off, len);
+
+        if (n < len && len > 0)
+            throw new EOFException();
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        if (n <= 0)
+            return 0;
+
+        Cursor cursor = cursor();
+
+        long newPos = Math.min(cursor.pos + n, length);
+        int skipped = (int)(newPos - cursor.pos);
+
+        cursor.pos = newPos;
+
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        int b = read();
+
+        if (b < 0)
+            throw new EOFException();
+
+        return (byte)b;
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        Cursor cursor = cursor();
+        int offset = readable(cursor, Short.BYTES);
+
+        if (offset == -1)
+            return scratch(cursor, Short.BYTES).getShort(0);
+
+        cursor.pos += Short.BYTES;
+
+        return cursor.current.buffer.getShort(offset);
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char)readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        Cursor cursor = cursor();
+        int offset = readable(cursor, Integer.BYTES);
+
+        if (offset == -1)
+            return scratch(cursor, Integer.BYTES).getInt(0);
+
+        cursor.pos += Integer.BYTES;
+
+        return cursor.current.buffer.getInt(offset);
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        Cursor cursor = cursor();
+        int offset = readable(cursor, Long.BYTES);
+
+        if (offset == -1)
+            return scratch(cursor, Long.BYTES).getLong(0);
+
+        cursor.pos += Long.BYTES;
+
+        return cursor.current.buffer.getLong(offset);
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c = read();
+
+        if (c == -1)
+            return null;
+
+        while (c != -1 && c != '\n') {
+            if (c != '\r')
+                line.append((char)c);
+
+            c = read();
+        }
+
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        Cursor cursor = cursor();
+        Page page = writable(cursor, 1);
+
+        page.buffer.put((int)(cursor.pos - page.start), (byte)b);
+        advance(cursor, page, 1);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Cursor cursor = cursor();
+
+        while (len > 0) {
+            Page page = page(cursor);
+            int offset = (int)(cursor.pos - page.start);
+            int n = Math.min(pageSize - offset, len);
+
+            reserve(cursor.pos + n);
+
+            cursor.view.clear();
+            cursor.view.position(offset);
+            cursor.view.put(b, off, n);
+            advance(cursor, page, n);
+
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        Cursor cursor = cursor();
+        Page page = writable(cursor, Short.BYTES);
+
+        if (page == null) {
+            cursor.scratch.putShort(0, (short)v);
+            write(cursor.scratch.array(), 0, Short.BYTES);
+            return;
+        }
+
+        page.buffer.putShort((int)(cursor.pos - page.start), (short)v);
+        advance(cursor, page, Short.BYTES);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        Cursor cursor = cursor();
+        Page page = writable(cursor, Integer.BYTES);
+
+        if (page == null) {
+            cursor.scratch.putInt(0, v);
+            write(cursor.scratch.array(), 0, Integer.BYTES);
+            return;
+        }
+
+        page.buffer.putInt((int)(cursor.pos - page.start), v);
+        advance(cursor, page, Integer.BYTES);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        Cursor cursor = cursor();
+        Page page = writable(cursor, Long.BYTES);
+
+        if (page == null) {
+            cursor.scratch.putLong(0, v);
+            write(cursor.scratch.array(), 0, Long.BYTES);
+            return;
+        }
+
+        page.buffer.putLong((int)(cursor.pos - page.start), v);
+        advance(cursor, page, Long.BYTES);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            write(s.charAt(i));
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            writeChar(s.charAt(i));
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        new DataOutputStream(bytes).writeUTF(s);
+        write(bytes.toByteArray());
+    }
+
+    // Subclasses pass the barrier before writing modified pages back.
+    protected void barrier() throws IOException {
+        Barrier barrier = this.barrier;
+
+        if (barrier != null)
+            barrier.await();
+    }
+
+    /*
+     * Returns how many bytes of the page belong to the file. Those not
+     * yet written to it, like a gap left by writing past its end, are
+     * zeros in the page as well.
+     */
+    protected int limit(Page page) {
+        return (int)Math.max(0, Math.min(pageSize, length - page.start));
+    }
+
+    /*
+     * Returns the offset of the file pointer inside its page when the
+     * amount of bytes specified can be read from it, or -1 otherwise.
+     */
+    private int readable(Cursor cursor, int n) throws IOException {
+        Page page = page(cursor);
+        int offset = (int)(cursor.pos - page.start);
+
+        return (offset + n <= limit(page)) ? offset : -1;
+    }
+
+    // Reads bytes that belong to different pages.
+    private ByteBuffer scratch(Cursor cursor, int n) throws IOException {
+        readFully(cursor.scratch.array(), 0, n);
+
+        return cursor.scratch;
+    }
+
+    /*
+     * Returns the page of the file pointer when the amount of bytes
+     * specified fits in it, or null otherwise.
+     */
+    private Page writable(Cursor cursor, int n) throws IOException {
+        Page page = page(cursor);
+
+        if (cursor.pos - page.start + n > pageSize)
+            return null;
+
+        reserve(cursor.pos + n);
+
+        return page;
+    }
+
+    private void advance(Cursor cursor, Page page, int n) {
+        cursor.pos += n;
+        page.dirty = true;
+
+        length = Math.max(length, cursor.pos);
+    }
+
+    // Returns the page that contains the file pointer.
+    private Page page(Cursor cursor) throws IOException {
+        long start = cursor.pos - (cursor.pos % pageSize);
+        Page page = cursor.current;
+
+        if (page == null || page.start != start || page.dropped) {
+            Page previous = cursor.previous;
+
+            /*
+             * Going back to the page before, as when a record's header
+             * is read again after the record ran into the next page,
+             * doesn't fetch it again.
+             */
+            if (previous != null && previous.start == start && !previous.dropped) {
+                page = previous;
+            } else {
+                page = fetch(start);
+                fetches.increment();
+            }
+
+            cursor.previous = cursor.current;
+            cursor.current = page;
+            cursor.view = page.buffer.duplicate();
+        }
+
+        return page;
+    }
+
+    private Cursor cursor() {
+        Cursor cursor = last;
+
+        if (cursor == null || cursor.owner != Thread.currentThread()) {
+            cursor = cursors.get();
+            last = cursor;
+        }
+
+        return cursor;
+    }
+
+    // Waits for whatever the file's pages depend on to be durable.
+    public interface Barrier {
+        void await() throws IOException;
+    }
+
+    protected static class Page {
+        protected final ByteBuffer buffer;
+
+        /*
+         * Used by the subclass to transfer the page, leaving the buffer
+         * untouched, so its bounds must be reset before each use.
+         */
+        protected final ByteBuffer view;
+
+        protected final long start;
+        protected boolean dirty;
+
+        // Set once the page is no longer the one fetched for its start.
+        protected volatile boolean dropped;
+
+        protected Page(ByteBuffer buffer, long start) {
+            this.buffer = buffer;
+            this.view = buffer.duplicate();
+            this.start = start;
+        }
+    }
+
+    /*
+     * Position of a thread in the file, along with the last two pages
+     * it accessed and its own view of the current one for bulk
+     * transfers.
+     */
+    private static class Cursor {
+        private final Thread owner = Thread.currentThread();
+
+        private long pos;
+
+        private Page current;
+        private ByteBuffer view;
+
+        // Page accessed before the current one.
+        private Page previous;
+
+        // Used by primitives whose bytes are split between two pages.
+        private final ByteBuffer scratch = ByteBuffer.allocate(Long.BYTES);
+    }
+}
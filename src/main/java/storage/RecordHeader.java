@@ -0,0 +1,134 @@
+package main.java.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Header preceding each record in the database file, in either of its
+ * two forms:
+ *
+ * <validation-bit> <byte-repr-length as int>
+ * <validation-bit | COMPACT> <byte-repr-length as varint>
+ *
+ * Only the compact one is written, while both are read, so files
+ * written before it remain usable.
+ *
+ * A single instance is meant to be reused for reading many headers.
+ */
+public class RecordHeader {
+    // Set in the first byte of the headers whose length is a varint.
+    public static final int COMPACT = 0x80;
+
+    // Smallest header possible, the one of an empty record.
+    public static final int MIN_SIZE = 2;
+
+    private boolean valid;
+
+    // Bytes reserved for the record, following the header.
+    private int length;
+
+    // Bytes taken by the header itself.
+    private int size;
+
+    // Whether every byte read was zero.
+    private boolean blank;
+
+    // Reads the header at the current position, leaving it after it.
+    public void read(DataInput in) throws IOException {
+        int first = in.readUnsignedByte();
+
+        valid = (first & 1) != 0;
+
+        if ((first & COMPACT) != 0) {
+            readLength(in);
+        } else {
+            length = in.readInt();
+            size = 1 + Integer.BYTES;
+        }
+
+        blank = first == 0 && length == 0;
+    }
+
+    /*
+     * The length may be padded, so the header's size is given by the
+     * bytes read rather than by the value.
+     */
+    private void readLength(DataInput in) throws IOException {
+        length = 0;
+        size = 1;
+
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = in.readByte();
+
+            length |= (b & 0x7F) << shift;
+            size++;
+
+            if (b >= 0)
+                return;
+        }
+
+        throw new IOException("Malformed record header");
+    }
+
+    public boolean valid() {
+        return this.valid;
+    }
+
+    /*
+     * Headers are never written as zeros alone, so a blank one is past
+     * the records, such as in space a mapped file reserved.
+     */
+    public boolean blank() {
+        return this.blank;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // Bytes taken by the header and its record together.
+    public int total() {
+        return size + length;
+    }
+
+    // Bytes taken by a record of the length specified with its header.
+    public static int total(int length) {
+        return 1 + Varint.size(length) + length;
+    }
+
+    public static void write(DataOutput out, boolean valid, int length)
+            throws IOException {
+
+        out.writeByte(COMPACT | (valid ? 1 : 0));
+        Varint.write(out, length);
+    }
+
+    /*
+     * Writes a header that, along with the length it holds, takes
+     * exactly the amount of bytes specified, which must be at least
+     * MIN_SIZE. The length is padded if needed.
+     */
+    public static void writeRegion(DataOutput out, boolean valid, int total)
+            throws IOException {
+
+        int length = capacity(total);
+
+        out.writeByte(COMPACT | (valid ? 1 : 0));
+        Varint.write(out, length, total - 1 - length);
+    }
+
+    // Largest record a region of the amount of bytes specified can hold.
+    public static int capacity(int total) {
+        int width = 1;
+
+        while (Varint.size(total - 1 - width) > width)
+            width++;
+
+        return total - 1 - width;
+    }
+}
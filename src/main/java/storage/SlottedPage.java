@@ -0,0 +1,208 @@
+package main.java.storage;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Fixed-size page holding variable length records. A directory of slots
+ * grows from the start of the page while the records' bytes are placed
+ * from its end, so the free space is always in the middle:
+ *
+ * <slot-count> <free-end> [<offset> <length>]... <free> ...<records>
+ *
+ * Records are addressed by their slot, which never changes while they
+ * remain in the page, even if they're moved around inside it. A slot
+ * with offset zero is free and may be reused.
+ */
+class SlottedPage {
+    static final int HEADER = 2 * Short.BYTES;
+    static final int SLOT = 2 * Short.BYTES;
+
+    private final ByteBuffer data;
+
+    SlottedPage(byte[] data) {
+        this.data = ByteBuffer.wrap(data);
+    }
+
+    // Initializes a page without any record.
+    static SlottedPage empty(int size) {
+        SlottedPage page = new SlottedPage(new byte[size]);
+
+        page.setSlots(0);
+        page.setFreeEnd(size);
+
+        return page;
+    }
+
+    // Largest record that fits in an empty page.
+    static int capacity(int size) {
+        return size - HEADER - SLOT;
+    }
+
+    byte[] array() {
+        return data.array();
+    }
+
+    int slots() {
+        return data.getShort(0);
+    }
+
+    int offset(int slot) {
+        return data.getShort(HEADER + slot * SLOT);
+    }
+
+    int length(int slot) {
+        return data.getShort(HEADER + slot * SLOT + Short.BYTES);
+    }
+
+    boolean used(int slot) {
+        return slot < slots() && offset(slot) != 0;
+    }
+
+    // Amount of slots holding a record.
+    int used() {
+        int used = 0;
+
+        for (int i = 0; i < slots(); i++) {
+            if (offset(i) != 0)
+                used++;
+        }
+
+        return used;
+    }
+
+    byte[] get(int slot) {
+        byte[] bytes = new byte[length(slot)];
+
+        data.position(offset(slot));
+        data.get(bytes);
+
+        return bytes;
+    }
+
+    /*
+     * Returns the bytes available for new records, including the ones
+     * left behind by deleted or shrunk records.
+     */
+    int free() {
+        int used = HEADER + slots() * SLOT;
+
+        for (int i = 0; i < slots(); i++)
+            used += length(i);
+
+        return data.capacity() - used;
+    }
+
+    // Returns the slot of the record stored or -1 if it doesn't fit.
+    int insert(byte[] bytes) {
+        int slot = freeSlot();
+        int required = bytes.length + ((slot == slots()) ? SLOT : 0);
+
+        if (free() < required)
+            return -1;
+
+        if (slot == slots()) {
+            // The directory can only grow over free bytes.
+            if (freeEnd() - (HEADER + slots() * SLOT) < SLOT)
+                compact();
+
+            setSlots(slot + 1);
+            setSlot(slot, 0, 0);
+        }
+
+        place(slot, bytes);
+
+        return slot;
+    }
+
+    /*
+     * Returns false if the record no longer fits in this page, in which
+     * case it's left untouched.
+     */
+    boolean update(int slot, byte[] bytes) {
+        if (bytes.length <= length(slot)) {
+            data.position(offset(slot));
+            data.put(bytes);
+            setSlot(slot, offset(slot), bytes.length);
+
+            return true;
+        }
+
+        if (free() + length(slot) < bytes.length)
+            return false;
+
+        setSlot(slot, 0, 0);
+        place(slot, bytes);
+
+        return true;
+    }
+
+    void delete(int slot) {
+        setSlot(slot, 0, 0);
+
+        // Free slots at the end of the directory are given back.
+        int slots = slots();
+
+        while (slots > 0 && offset(slots - 1) == 0)
+            slots--;
+
+        setSlots(slots);
+    }
+
+    // Writes the bytes to the free space, compacting it if needed.
+    private void place(int slot, byte[] bytes) {
+        if (freeEnd() - (HEADER + slots() * SLOT) < bytes.length)
+            compact();
+
+        int offset = freeEnd() - bytes.length;
+
+        data.position(offset);
+        data.put(bytes);
+
+        setFreeEnd(offset);
+        setSlot(slot, offset, bytes.length);
+    }
+
+    // Moves every record to the end of the page, merging the free space.
+    private void compact() {
+        byte[] records = new byte[data.capacity()];
+        int end = data.capacity();
+
+        for (int i = 0; i < slots(); i++) {
+            if (offset(i) == 0)
+                continue;
+
+            end -= length(i);
+            System.arraycopy(data.array(), offset(i), records, end, length(i));
+            setSlot(i, end, length(i));
+        }
+
+        System.arraycopy(records, end, data.array(), end, data.capacity() - end);
+        setFreeEnd(end);
+    }
+
+    private int freeSlot() {
+        for (int i = 0; i < slots(); i++) {
+            if (offset(i) == 0)
+                return i;
+        }
+
+        return slots();
+    }
+
+    private int freeEnd() {
+        return data.getShort(Short.BYTES) & 0xFFFF;
+    }
+
+    private void setSlots(int slots) {
+        data.putShort(0, (short)slots);
+    }
+
+    private void setFreeEnd(int freeEnd) {
+        data.putShort(Short.BYTES, (short)freeEnd);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        data.putShort(HEADER + slot * SLOT, (short)offset);
+        data.putShort(HEADER + slot * SLOT + Short.BYTES, (short)length);
+    }
+}
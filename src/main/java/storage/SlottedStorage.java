@@ -0,0 +1,467 @@
+package main.java.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+import main.java.database.Record;
+import main.java.database.RecordView;
+
+/*
+ * Stores the records in fixed-size slotted pages, each one matching a
+ * page of the underlying file. The first page is reserved for the
+ * header:
+ *
+ * <magic> <last-id>
+ *
+ * Pointers combine the page number and the record's slot in it, so
+ * records can be moved inside their page without the indexes noticing.
+ *
+ * The free bytes of each page are kept in a free-space map, found
+ * again from the pages themselves when the file is opened, so new
+ * records go to the page that best fits them.
+ */
+public class SlottedStorage implements StorageEngine {
+    public static final int PAGE_SIZE = BufferedFile.PAGE_SIZE;
+
+    // Identifies files in this format.
+    private static final int MAGIC = 0x6A646273;
+
+    private static final int SLOT_BITS = 16;
+
+    // Pages with less free bytes than this aren't worth searching.
+    private static final int MIN_FREE = 64;
+
+    private final PagedFile file;
+
+    private final FreeSpaceMap free = new FreeSpaceMap();
+
+    private PageCompaction compaction;
+
+    public SlottedStorage(PagedFile file) throws IOException {
+        this.file = file;
+
+        if (file.length() == 0) {
+            file.setLength(PAGE_SIZE);
+            file.seek(0);
+            file.writeInt(MAGIC);
+            file.writeInt(0);
+
+        } else {
+            file.seek(0);
+
+            if (file.length() % PAGE_SIZE != 0 || file.readInt() != MAGIC)
+                throw new IOException("File is not in the slotted page format");
+
+            for (long page = 1; page < pages(); page++)
+                track(page, load(page));
+        }
+    }
+
+    @Override
+    public int getLastId() throws IOException {
+        file.seek(Integer.BYTES);
+
+        return file.readInt();
+    }
+
+    @Override
+    public void setLastId(int lastId) throws IOException {
+        file.seek(Integer.BYTES);
+        file.writeInt(lastId);
+    }
+
+    /*
+     * Records go to the page with the least free bytes that still fit
+     * them, counting a new slot, or to a new one.
+     */
+    @Override
+    public long insert(Record record) throws IOException {
+        byte[] bytes = record.toByteArray();
+
+        if (bytes.length > SlottedPage.capacity(PAGE_SIZE))
+            throw new IOException("Record is too large for a page");
+
+        long pageNumber = free.find(bytes.length + SlottedPage.SLOT);
+        SlottedPage page = (pageNumber == -1)
+            ? SlottedPage.empty(PAGE_SIZE)
+            : load(pageNumber);
+
+        if (pageNumber == -1)
+            pageNumber = pages();
+
+        int slot = page.insert(bytes);
+
+        store(pageNumber, page);
+
+        return pointer(pageNumber, slot);
+    }
+
+    // Only the last page is considered, as records in it come last.
+    @Override
+    public long append(Record record) throws IOException {
+        byte[] bytes = record.toByteArray();
+
+        if (bytes.length > SlottedPage.capacity(PAGE_SIZE))
+            throw new IOException("Record is too large for a page");
+
+        long last = pages() - 1;
+
+        if (last > 0) {
+            SlottedPage page = load(last);
+
+            // Slots freed before the last one would come first.
+            if (page.slots() == page.used()) {
+                int slot = page.insert(bytes);
+
+                if (slot != -1) {
+                    store(last, page);
+
+                    return pointer(last, slot);
+                }
+            }
+        }
+
+        SlottedPage page = SlottedPage.empty(PAGE_SIZE);
+        int slot = page.insert(bytes);
+
+        store(last + 1, page);
+
+        return pointer(last + 1, slot);
+    }
+
+    /*
+     * Pages are filled in memory, each one being stored only once it's
+     * full or the records are over.
+     */
+    @Override
+    public long[] appendAll(List<Record> records) throws IOException {
+        long[] ptrs = new long[records.size()];
+
+        long number = pages() - 1;
+        SlottedPage page = null;
+
+        if (number > 0) {
+            page = load(number);
+
+            // Slots freed before the last one would come first.
+            if (page.slots() != page.used())
+                page = null;
+        }
+
+        for (int i = 0; i < ptrs.length; i++) {
+            byte[] bytes = records.get(i).toByteArray();
+
+            if (bytes.length > SlottedPage.capacity(PAGE_SIZE))
+                throw new IOException("Record is too large for a page");
+
+            int slot = (page == null) ? -1 : page.insert(bytes);
+
+            if (slot == -1) {
+                if (page != null)
+                    store(number, page);
+
+                page = SlottedPage.empty(PAGE_SIZE);
+                number++;
+                slot = page.insert(bytes);
+            }
+
+            ptrs[i] = pointer(number, slot);
+        }
+
+        if (page != null)
+            store(number, page);
+
+        return ptrs;
+    }
+
+    @Override
+    public Record read(long ptr) throws IOException {
+        RecordView view = new RecordView();
+
+        return read(ptr, view) ? view.toRecord() : null;
+    }
+
+    @Override
+    public boolean read(long ptr, RecordView view) throws IOException {
+        long page = page(ptr);
+        int slot = slot(ptr);
+
+        if (!exists(page, slot))
+            return false;
+
+        file.seek(page * PAGE_SIZE + SlottedPage.HEADER + slot * SlottedPage.SLOT);
+
+        int offset = file.readShort();
+        int length = file.readShort();
+
+        if (offset == 0)
+            return false;
+
+        file.seek(page * PAGE_SIZE + offset);
+        view.readFrom(file, length, true);
+
+        return true;
+    }
+
+    /*
+     * The record keeps its pointer while it fits in its page, which may
+     * have to be compacted for that.
+     */
+    @Override
+    public long update(long ptr, Record record) throws IOException {
+        SlottedPage page = load(page(ptr));
+        byte[] bytes = record.toByteArray();
+
+        if (page.update(slot(ptr), bytes)) {
+            store(page(ptr), page);
+
+            return ptr;
+        }
+
+        long newPtr = insert(record);
+        delete(ptr);
+
+        return newPtr;
+    }
+
+    @Override
+    public void delete(long ptr) throws IOException {
+        SlottedPage page = load(page(ptr));
+
+        page.delete(slot(ptr));
+        store(page(ptr), page);
+    }
+
+    @Override
+    public int idAt(long ptr) throws IOException {
+        long page = page(ptr);
+        int slot = slot(ptr);
+
+        if (!exists(page, slot))
+            return -1;
+
+        file.seek(page * PAGE_SIZE + SlottedPage.HEADER + slot * SlottedPage.SLOT);
+        int offset = file.readShort();
+
+        if (offset == 0)
+            return -1;
+
+        file.seek(page * PAGE_SIZE + offset);
+
+        return Record.readId(file);
+    }
+
+    @Override
+    public long first() throws IOException {
+        return seekValid(1, 0);
+    }
+
+    @Override
+    public long next(long ptr) throws IOException {
+        return seekValid(page(ptr), slot(ptr) + 1);
+    }
+
+    @Override
+    public Compaction compaction() throws IOException {
+        if (compaction == null)
+            compaction = new PageCompaction();
+
+        return compaction;
+    }
+
+    @Override
+    public void clear() throws IOException {
+        compaction = null;
+
+        file.setLength(PAGE_SIZE);
+        free.clear();
+    }
+
+    @Override
+    public PagedFile getFile() {
+        return this.file;
+    }
+
+    // Pages with room for more records and how many bytes each has free.
+    public FreeSpaceMap getFreeSpace() {
+        return this.free;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        file.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public static long page(long ptr) {
+        return ptr >>> SLOT_BITS;
+    }
+
+    public static int slot(long ptr) {
+        return (int)(ptr & ((1 << SLOT_BITS) - 1));
+    }
+
+    private static long pointer(long page, int slot) {
+        return (page << SLOT_BITS) | slot;
+    }
+
+    private long pages() throws IOException {
+        return file.length() / PAGE_SIZE;
+    }
+
+    private boolean exists(long page, int slot) throws IOException {
+        if (page < 1 || page >= pages())
+            return false;
+
+        file.seek(page * PAGE_SIZE);
+
+        return slot < file.readShort();
+    }
+
+    // Returns the pointer of the first valid record from the one specified on.
+    private long seekValid(long page, int slot) throws IOException {
+        for (; page < pages(); page++, slot = 0) {
+            file.seek(page * PAGE_SIZE);
+            int slots = file.readShort();
+
+            for (; slot < slots; slot++) {
+                file.seek(page * PAGE_SIZE + SlottedPage.HEADER + slot * SlottedPage.SLOT);
+
+                if (file.readShort() != 0)
+                    return pointer(page, slot);
+            }
+        }
+
+        return -1;
+    }
+
+    private SlottedPage load(long page) throws IOException {
+        byte[] data = new byte[PAGE_SIZE];
+
+        file.seek(page * PAGE_SIZE);
+        file.readFully(data);
+
+        return new SlottedPage(data);
+    }
+
+    private void store(long page, SlottedPage content) throws IOException {
+        file.seek(page * PAGE_SIZE);
+        file.write(content.array());
+
+        track(page, content);
+    }
+
+    private void track(long page, SlottedPage content) {
+        free.remove(page);
+
+        if (content.free() >= MIN_FREE)
+            free.add(page, content.free());
+    }
+
+    /*
+     * Pages already reuse the space inside them, so what's left is to
+     * move the records of the last pages to the free space of the
+     * others, cutting the pages emptied from the file. It finishes when
+     * a record of the last page doesn't fit anywhere else.
+     */
+    private class PageCompaction implements Compaction {
+        // Free bytes when it started, which are the most it can reclaim.
+        private final long initialFree = free.bytes();
+
+        private int moved;
+        private long reclaimed;
+
+        @Override
+        public boolean step(int records, Relocation relocation)
+                throws IOException {
+
+            if (done())
+                return false;
+
+            try {
+                for (int i = 0; ; ) {
+                    long last = pages() - 1;
+
+                    if (last < 1)
+                        break;
+
+                    SlottedPage page = load(last);
+
+                    // Records aren't moved to the page they come from.
+                    free.remove(last);
+
+                    for (int slot = page.slots() - 1; slot >= 0 && i < records; slot--) {
+                        if (!page.used(slot))
+                            continue;
+
+                        byte[] bytes = page.get(slot);
+                        long target = free.find(bytes.length + SlottedPage.SLOT);
+
+                        if (target == -1) {
+                            store(last, page);
+                            compaction = null;
+
+                            return false;
+                        }
+
+                        SlottedPage targetPage = load(target);
+                        int targetSlot = targetPage.insert(bytes);
+
+                        store(target, targetPage);
+                        page.delete(slot);
+
+                        relocation.moved(pointer(last, slot), pointer(target, targetSlot));
+                        moved++;
+                        i++;
+                    }
+
+                    if (page.slots() > 0) {
+                        store(last, page);
+
+                        return true;
+                    }
+
+                    file.setLength(last * PAGE_SIZE);
+                    reclaimed += PAGE_SIZE;
+
+                    if (i == records)
+                        return true;
+                }
+
+                compaction = null;
+
+                return false;
+
+            } catch (IOException e) {
+                throw new IOException("Error while compacting the last page", e);
+            }
+        }
+
+        @Override
+        public boolean done() {
+            return compaction != this;
+        }
+
+        @Override
+        public double progress() {
+            if (done())
+                return 1;
+
+            return Math.min(1, (double)reclaimed / Math.max(1, initialFree));
+        }
+
+        @Override
+        public int moved() {
+            return this.moved;
+        }
+
+        @Override
+        public long reclaimed() {
+            return this.reclaimed;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package main.java.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import main.java.database.Record;
+import main.java.database.RecordView;
+
+/*
+ * Defines how the records are laid out in the database file. Each
+ * record is addressed by the pointer returned when it's written, which
+ * is the value stored by the indexes.
+ */
+public interface StorageEngine extends Closeable {
+    // Highest id generated so far, kept in the file's header.
+    int getLastId() throws IOException;
+
+    void setLastId(int lastId) throws IOException;
+
+    // Returns the pointer of the record just stored.
+    long insert(Record record) throws IOException;
+
+    /*
+     * Stores the record after every other one, so records loaded this
+     * way are traversed in the same order.
+     */
+    long append(Record record) throws IOException;
+
+    /*
+     * Appends the records in the order given, returning their pointers
+     * in that same order. Meant for loading many records at once, so
+     * the file is written as few times as possible.
+     */
+    long[] appendAll(List<Record> records) throws IOException;
+
+    // Returns the valid record at the pointer, or null if there's none.
+    Record read(long ptr) throws IOException;
+
+    /*
+     * Loads the valid record at the pointer into the view, returning
+     * false if there's none.
+     */
+    boolean read(long ptr, RecordView view) throws IOException;
+
+    /*
+     * Replaces the record at the pointer, returning where it is stored
+     * from now on, which may be a different position.
+     */
+    long update(long ptr, Record record) throws IOException;
+
+    /*
+     * The space of the record may be given to other records, so its
+     * pointer must not be used anymore.
+     */
+    void delete(long ptr) throws IOException;
+
+    /*
+     * Returns the id of the valid record at the pointer, or -1 if
+     * there's none, without reading the whole record.
+     */
+    int idAt(long ptr) throws IOException;
+
+    /*
+     * Valid records are traversed in the order they are stored through
+     * these two, which return -1 once there are no more records.
+     */
+    long first() throws IOException;
+
+    long next(long ptr) throws IOException;
+
+    /*
+     * Returns the compaction in progress, starting a new one if there's
+     * none.
+     */
+    Compaction compaction() throws IOException;
+
+    // Discards every record, keeping the header.
+    void clear() throws IOException;
+
+    // Underlying file, for operations on its raw content.
+    PagedFile getFile();
+
+    void flush() throws IOException;
+}
@@ -0,0 +1,140 @@
+package main.java.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Variable length encoding of non-negative integers, seven bits per
+ * byte from the least significant ones, the highest bit telling
+ * whether another byte follows. Small values, like most lengths and
+ * ids, take a single byte.
+ *
+ * Signed values should be zigzag encoded first, so the small negative
+ * ones are small as well.
+ */
+public final class Varint {
+    private Varint() {
+    }
+
+    public static void write(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    /*
+     * Writes the value with exactly the amount of bytes specified,
+     * padding it with empty groups, so it can replace another one in
+     * place. The width must be at least the value's size.
+     */
+    public static void write(DataOutput out, int value, int width)
+            throws IOException {
+
+        for (int i = 1; i < width; i++) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    public static void writeLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte((int)value);
+    }
+
+    public static int read(DataInput in) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = in.readByte();
+
+            value |= (b & 0x7F) << shift;
+
+            if (b >= 0)
+                return value;
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    public static long readLong(DataInput in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.readByte();
+
+            value |= (long)(b & 0x7F) << shift;
+
+            if (b >= 0)
+                return value;
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    // Decodes the value starting at the offset of the array.
+    public static int read(byte[] bytes, int offset) {
+        int value = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[offset++];
+
+            value |= (b & 0x7F) << shift;
+
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    public static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[offset++];
+
+            value |= (long)(b & 0x7F) << shift;
+
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    // Amount of bytes taken by the value at the offset of the array.
+    public static int size(byte[] bytes, int offset) {
+        int size = 1;
+
+        while (bytes[offset++] < 0)
+            size++;
+
+        return size;
+    }
+
+    // Amount of bytes taken by the value.
+    public static int size(int value) {
+        int size = 1;
+
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,288 @@
+package main.java.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*
+ * Log of the operations applied to the database since its files were
+ * last known to be on disk, so they can be applied again after a
+ * crash. Each entry holds the type of the operation and whatever its
+ * owner needs to repeat it:
+ *
+ * [<payload-length> <checksum> <type> <payload>]...
+ *
+ * Entries are written to the file as soon as they're appended, so they
+ * survive the process itself crashing, and append returns the position
+ * the log reached. An operation survives the system crashing once
+ * sync has been called with that position and returned.
+ *
+ * Syncs are shared by whoever waits at the same time: the first caller
+ * to find the log behind its position syncs every entry written so far,
+ * while the others wait for it, and those whose entries it covered
+ * return along with it. Entries appended during a sync wait for the
+ * next one, which they then share too.
+ *
+ * Positions keep growing across resets, so one from before a reset is
+ * always found to be synced.
+ *
+ * A crash may leave the last entry incomplete. Reading stops at the
+ * first entry whose checksum doesn't match, and the log is cut there
+ * when opened.
+ */
+public class WriteAheadLog implements Closeable {
+    // Payload length, checksum and type preceding each payload.
+    private static final int ENTRY_HEADER = 2 * Integer.BYTES + 1;
+
+    private final FileChannel channel;
+
+    // Reused for building each entry.
+    private final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(entry);
+
+    private long length;
+
+    // Position of the start of the file, moved forward by each reset.
+    private long base;
+
+    // Position up to which the entries are on the disk.
+    private long synced;
+
+    // Whether a caller is syncing, the rest waiting for it to finish.
+    private boolean syncing;
+
+    private long syncs;
+
+    // Failure of a sync, reported to every call after it.
+    private IOException failure;
+
+    public WriteAheadLog(File file) throws IOException {
+        try {
+            this.channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+            this.length = validLength();
+
+            if (length < channel.size())
+                channel.truncate(length);
+
+        } catch (IOException e) {
+            throw new IOException("Error while opening the log " + file, e);
+        }
+
+        // Whatever survived on the file is taken as synced.
+        this.synced = length;
+    }
+
+    // Adds an entry, returning the position to sync for it to be durable.
+    public synchronized long append(int type, byte[] payload) throws IOException {
+        rethrow();
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        entry.reset();
+
+        out.writeInt(payload.length);
+        out.writeInt((int)crc.getValue());
+        out.writeByte(type);
+        out.write(payload);
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(entry.toByteArray());
+
+            while (buffer.hasRemaining())
+                channel.write(buffer, length + buffer.position());
+
+        } catch (IOException e) {
+            throw new IOException("Unable to write to the log", e);
+        }
+
+        length += entry.size();
+
+        return base + length;
+    }
+
+    /*
+     * Waits until the entries up to the position given are on the disk,
+     * either syncing them or waiting for the sync covering them.
+     */
+    public void sync(long position) throws IOException {
+        long target;
+
+        synchronized (this) {
+            while (true) {
+                rethrow();
+
+                if (synced >= position)
+                    return;
+
+                if (!syncing)
+                    break;
+
+                try {
+                    wait();
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while syncing the log");
+                }
+            }
+
+            syncing = true;
+            target = base + length;
+        }
+
+        // Appends go on meanwhile, and are synced by the next caller.
+        try {
+            channel.force(false);
+
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                syncing = false;
+                notifyAll();
+            }
+
+            throw new IOException("Unable to sync the log", e);
+        }
+
+        synchronized (this) {
+            synced = Math.max(synced, target);
+            syncs++;
+            syncing = false;
+            notifyAll();
+        }
+    }
+
+    // Waits until every entry written is on the disk.
+    public void sync() throws IOException {
+        sync(position());
+    }
+
+    /*
+     * Discards every entry, once the operations they describe are known
+     * to be on disk.
+     */
+    public synchronized void reset() throws IOException {
+        rethrow();
+
+        channel.truncate(0);
+        channel.force(false);
+
+        base += length;
+        length = 0;
+        synced = Math.max(synced, base);
+    }
+
+    /*
+     * Hands the entries written so far, in order, to the replay, along
+     * with their payloads.
+     */
+    public synchronized void replay(Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(readFile(length)));
+
+        try {
+            while (in.available() > 0) {
+                int size = in.readInt();
+                in.readInt();
+                int type = in.readUnsignedByte();
+
+                byte[] payload = new byte[size];
+                in.readFully(payload);
+
+                replay.apply(type, new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+
+        } catch (IOException e) {
+            throw new IOException("Error while replaying the log", e);
+        }
+    }
+
+    // Bytes taken by the entries.
+    public synchronized long size() {
+        return this.length;
+    }
+
+    // Position reached by the last entry appended.
+    public synchronized long position() {
+        return base + length;
+    }
+
+    // Times the entries were synced, each sync covering a whole group.
+    public synchronized long syncs() {
+        return this.syncs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void rethrow() throws IOException {
+        if (failure != null)
+            throw new IOException("A previous sync of the log failed", failure);
+    }
+
+    // Length of the entries from the start that are complete and intact.
+    private long validLength() throws IOException {
+        byte[] bytes = readFile(channel.size());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        int pos = 0;
+
+        while (bytes.length - pos >= ENTRY_HEADER) {
+            int size = buffer.getInt(pos);
+            int checksum = buffer.getInt(pos + Integer.BYTES);
+
+            if (size < 0 || size > bytes.length - pos - ENTRY_HEADER)
+                break;
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, pos + 2 * Integer.BYTES, 1 + size);
+
+            if ((int)crc.getValue() != checksum)
+                break;
+
+            pos += ENTRY_HEADER + size;
+        }
+
+        return pos;
+    }
+
+    private byte[] readFile(long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int)size);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0)
+                break;
+        }
+
+        return buffer.array();
+    }
+
+    // Applies again the operation described by an entry.
+    public interface Replay {
+        void apply(int type, DataInput payload) throws IOException;
+    }
+}
@@ -1,19 +1,43 @@
 package main.java.structures.btree;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import main.java.database.Record;
+import main.java.storage.BufferedFile;
 
+/*
+ * Orders records by a key, either their id or any other attribute
+ * given as a long, in which case several records may share it. Keys
+ * of the same value are then ordered by id.
+ */
 public class BTree {
     private final int order;
-    private RandomAccessFile tree;
+    private BufferedFile tree;
     private final int rootPos;
     
     public BTree(int order) throws IOException {
+        this(order, "tree.bin");
+    }
+    
+    public BTree(int order, String name) throws IOException {
         this.rootPos = 0;
         this.order = order;
-        this.tree = new RandomAccessFile("tree.bin", "rw");
+        this.tree = new BufferedFile(name);
+    }
+    
+    /*
+     * Values whose order as longs is the same as the floats', so
+     * scores can be used as keys. NaN follows every number.
+     */
+    public static long key(float value) {
+        int bits = Float.floatToIntBits(value);
+        
+        return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
     }
     
     // Writes the root to the tree file
@@ -28,164 +52,236 @@ public class BTree {
     }
     
     public long search(int id) throws IOException {
-        BTreeKey key = new BTreeKey(id, -1);
-        BTreePage page = new BTreePage(order);
+        BTreePage page = findPage(id, id);
         
-        long pagePos = getPage(key, rootPos);
-        page.deserialize(tree, pagePos);
+        if (page == null)
+            return -1;
         
-        for (BTreeKey k : page.getKeys()) {
-            if (key.getId() == id) {
-                return k.getDbPtr();
-            }
+        return page.getKey(indexOf(page, id, id)).getDbPtr();
+    }
+    
+    public boolean update(int id, long dbPtr) throws IOException {
+        return update(id, id, dbPtr);
+    }
+    
+    /*
+     * Points the key to another position of the database file,
+     * returning false if it doesn't exist in the tree.
+     */
+    public boolean update(long key, int id, long dbPtr) throws IOException {
+        try {
+            BTreePage page = findPage(key, id);
+            
+            if (page == null)
+                return false;
+            
+            page.getKey(indexOf(page, key, id)).setDbPtr(dbPtr);
+            
+            tree.seek(page.getPos());
+            page.serialize(tree);
+            
+            return true;
+            
+        } catch (IOException e) {
+            throw new IOException("Unable to update key", e);
         }
+    }
+    
+    /*
+     * Keys are logically removed, so the tree never has to be
+     * rebalanced and searches report them as missing.
+     */
+    public boolean remove(int id) throws IOException {
+        return update(id, id, -1);
+    }
+    
+    public boolean remove(long key, int id) throws IOException {
+        return update(key, id, -1);
+    }
+    
+    // Discards every page, leaving only an empty root.
+    public void clear() throws IOException {
+        tree.setLength(0);
         
-        return -1;
+        build();
     }
     
     public void insert(Record record, long dbPtr) throws IOException {
-        BTreeKey key = new BTreeKey(record.getId(), dbPtr);
-        
-        insert(rootPos, key);
+        insert(new BTreeKey(record.getId(), dbPtr));
+    }
+    
+    public void insert(long key, int id, long dbPtr) throws IOException {
+        insert(new BTreeKey(key, id, dbPtr, -1));
     }
     
-    private void insert(long pagePos, BTreeKey key) throws IOException {
+    /*
+     * Keys already in the tree are pointed to the new position instead,
+     * so records are never found twice.
+     */
+    private void insert(BTreeKey key) throws IOException {
         try {
             BTreePage page = new BTreePage(order);
-            page.deserialize(tree, pagePos);
+            long pagePos = rootPos;
+            
+            // Pages from the root down, the current one on top.
+            Deque<Long> path = new ArrayDeque<Long>();
             
-            if (page.getLeaf()) {
-                if (page.getElements() < order - 1) {
-                    page.insertKey(key);
-                    tree.seek(pagePos);
-                    page.serialize(tree);
-                } else {
-                    split(page, key);
+            while (true) {
+                page.deserialize(tree, pagePos);
+                path.push(pagePos);
+                
+                int i = indexOf(page, key.getKey(), key.getId());
+                
+                if (i != -1) {
+                    page.getKey(i).setDbPtr(key.getDbPtr());
+                    write(page);
+                    
+                    return;
                 }
-            } else {
-                long childPos = getChildPointer(page, key);
                 
-                insert(childPos, key);
+                if (page.getLeaf() || page.getElements() == 0)
+                    break;
+                
+                pagePos = getChildPointer(page, key);
             }
             
+            // Full pages are split until one has room for the pivot.
+            while (page.getElements() >= order - 1) {
+                key = split(page, key);
+                
+                if (key == null)
+                    return;
+                
+                path.pop();
+                page.deserialize(tree, path.peek());
+            }
+            
+            page.insertKey(key);
+            write(page);
+            
         } catch (IOException e) {
             throw new IOException("Unable to insert key", e);
         }
     }
     
-    private void split(BTreePage page, BTreeKey key) throws IOException {
+    /*
+     * Splits the full page around its middle key once the key is added,
+     * moving the greater keys to a new page. Returns the middle key,
+     * pointing to the new page, to be added to the parent, or null if
+     * the page was the root, which then gets both halves as children
+     * so it always stays at the start of the file.
+     */
+    private BTreeKey split(BTreePage page, BTreeKey key) throws IOException {
         try {
-            BTreePage parent, right = new BTreePage(order);
-            boolean control = true;
-            int splitPos = (order - 1)/2;
-            BTreeKey pivot = page.getKey(splitPos);
+            BTreeKey[] keys = new BTreeKey[order];
+            int n = 0;
             
-            for (int i = splitPos + 1; i < order - 1; i++)
-                right.insertKey(page.getKey(i));
+            for (int i = 0; i < page.getElements(); i++) {
+                if (n == i && key.compareTo(page.getKey(i)) < 0)
+                    keys[n++] = key;
+                
+                keys[n++] = page.getKey(i);
+            }
             
-            page.setElements((byte)splitPos);
+            if (n < order)
+                keys[n] = key;
             
-            if (key.getId() < pivot.getId()) {
-                page.insertKey(key);
-            } else {
-                right.insertKey(key);
-            }
+            int middle = order / 2;
+            BTreeKey pivot = keys[middle];
             
-            parent = new BTreePage(order);
+            BTreePage left = (page.getPos() == rootPos)
+                ? new BTreePage(order, tree.length(), rootPos)
+                : page;
             
-            if (page.getParent() != -1)
-                parent.deserialize(tree, page.getParent());
+            left.setLeaf(page.getLeaf());
+            left.setTreePtr(page.getTreePtr());
+            left.setElements((byte)0);
             
-            right.setParent(parent.getPos());
-            right.setTreePtr(pivot.getTreePtr());
-            right.setLeaf((right.getTreePtr() == -1));
+            for (int i = 0; i < middle; i++)
+                left.insertKey(keys[i]);
             
-            tree.seek(tree.length());
-            right.serialize(tree);
+            if (left != page)
+                append(left);
             
-            pivot.setTreePtr(right.getPos());
+            BTreePage right = new BTreePage(order, tree.length(), left.getParent());
             
-            if (parent.getElements() >= order - 1) {
-                split(parent, pivot);
-                
-                long pagePos = getPage(pivot, rootPos);
-                parent.deserialize(tree, pagePos);
-                
-                control = false;
-            }
+            right.setLeaf(page.getLeaf());
+            right.setTreePtr(pivot.getTreePtr());
             
-            right.setParent(parent.getPos());
+            for (int i = middle + 1; i < order; i++)
+                right.insertKey(keys[i]);
             
-            tree.seek(right.getPos());
-            right.serialize(tree);
+            append(right);
             
-            page.setParent(parent.getPos());
-            page.setLeaf((page.getTreePtr() == -1));
+            pivot.setTreePtr(right.getPos());
             
-            if (page.getPos() != 0) {
-                tree.seek(page.getPos());
-            } else {
-                tree.seek(tree.length());
+            if (left == page) {
+                write(left);
+                adopt(right);
+                
+                return pivot;
             }
             
-            page.serialize(tree);
-            
-            if (control)
-                parent.insertKey(pivot);
+            adopt(left);
+            adopt(right);
             
-            parent.setLeaf(false);
+            page.setLeaf(false);
+            page.setTreePtr(left.getPos());
+            page.setElements((byte)0);
+            page.insertKey(pivot);
             
-            if (page.getParent() == rootPos && parent.getTreePtr() == -1)
-                parent.setTreePtr(page.getPos());
+            write(page);
             
-            tree.seek(parent.getPos());
-            parent.serialize(tree);
+            return null;
             
         } catch (IOException e) {
             throw new IOException("Unable to split page", e);
         }
     }
     
-    private long getPage(BTreeKey key, long pos) throws IOException {
-        try {
-            BTreePage page = new BTreePage(order);
-            page.deserialize(tree, pos);
-            
-            int i = 0, m = 0, n = page.getElements() - 1;
-            
-            while (i <= n) {
-                m = (i + n)/2;
-                
-                if (page.getKey(m).getId() == key.getId())
-                    return page.getPos();
-                
-                if (page.getKey(m).getId() < key.getId()) {
-                    i = m + 1;
-                    
-                } else {
-                    i = m - 1;
-                }
-            }
-            
-            n = (n == -1) ? 0 : n;
-            
-            if (n == 0) {
-                if (page.getKey(0).getId() > key.getId()) {
-                    return getPage(key, page.getTreePtr());
-                } else {
-                    return getPage(key, page.getKey(0).getTreePtr());
-                }
-            } else {
-                if (page.getKey(m).getId() < key.getId()) {
-                    return getPage(key, page.getKey(m).getTreePtr());
-                } else {
-                    return getPage(key, page.getKey(m - 1).getTreePtr());
-                }
-            }
-                    
-        } catch (IOException e) {
-            throw new IOException("Unable to get page", e);
-        }
+    // Points the children of the page to it, after they were moved there.
+    private void adopt(BTreePage page) throws IOException {
+        if (page.getLeaf())
+            return;
+        
+        setParent(page.getTreePtr(), page.getPos());
+        
+        for (int i = 0; i < page.getElements(); i++)
+            setParent(page.getKey(i).getTreePtr(), page.getPos());
+    }
+    
+    // The parent's position is the first field of each page.
+    private void setParent(long pagePos, long parent) throws IOException {
+        tree.seek(pagePos);
+        tree.writeLong(parent);
+    }
+    
+    private void write(BTreePage page) throws IOException {
+        tree.seek(page.getPos());
+        page.serialize(tree);
+    }
+    
+    private void append(BTreePage page) throws IOException {
+        tree.seek(tree.length());
+        page.serialize(tree);
+    }
+    
+    /*
+     * Returns the keys with ids in the range, inclusive, in ascending
+     * order and skipping the removed ones. Pages are only read once the
+     * iteration reaches them, so stopping early costs nothing more.
+     */
+    public Iterator<BTreeKey> range(int from, int to) {
+        return new Range(from, Integer.MIN_VALUE, to);
+    }
+    
+    /*
+     * Returns the keys from the one specified, inclusive, to the last
+     * one with the value given, so an iteration can be resumed after
+     * the last key it reached.
+     */
+    public Iterator<BTreeKey> range(long fromKey, int fromId, long toKey) {
+        return new Range(fromKey, fromId, toKey);
     }
     
     public void show() throws IOException {
@@ -200,26 +296,188 @@ public class BTree {
             System.out.println("Folha: " + tree.readBoolean());
             System.out.println("Total de Chaves: " + n);
             System.out.println("Primeiro Ponteiro da Pagina: " + tree.readLong());
-            for(int i = 0; i < 7; i++) {
+            for(int i = 0; i < order - 1; i++) {
                if(i < n) {
-                  System.out.println("Id: " + tree.readInt() + " Position: " + tree.readLong() + " Pointer: " + tree.readLong());
+                  System.out.println("Chave: " + tree.readLong() + " Id: " + tree.readInt() + " Position: " + tree.readLong() + " Pointer: " + tree.readLong());
                } else {
-                  tree.readInt(); tree.readLong(); tree.readLong();
+                  tree.readLong(); tree.readInt(); tree.readLong(); tree.readLong();
                }
             }
         }
     }
     
+    // Returns the page that contains the key or null if there's none.
+    private BTreePage findPage(long value, int id) throws IOException {
+        BTreeKey key = new BTreeKey(value, id, -1, -1);
+        BTreePage page = new BTreePage(order);
+        long pagePos = rootPos;
+        
+        while (pagePos != -1) {
+            page.deserialize(tree, pagePos);
+            
+            if (indexOf(page, value, id) != -1)
+                return page;
+            
+            // Leaves are the last pages that may contain the key.
+            if (page.getLeaf() || page.getElements() == 0)
+                break;
+            
+            pagePos = getChildPointer(page, key);
+        }
+        
+        return null;
+    }
+    
+    private int indexOf(BTreePage page, long key, int id) {
+        for (int i = 0; i < page.getElements(); i++) {
+            if (page.getKey(i).compareTo(key, id) == 0)
+                return i;
+        }
+        
+        return -1;
+    }
+    
     private long getChildPointer(BTreePage page, BTreeKey key) {
-        if (key.getId() < page.getKey(0).getId())
+        if (key.compareTo(page.getKey(0)) < 0)
             return page.getTreePtr();
         
         int i = 1;
         for (; i < page.getElements(); i++) {
-            if (key.getId() < page.getKey(i).getId())
+            if (key.compareTo(page.getKey(i)) < 0)
                 return page.getKey(i - 1).getTreePtr();
         }
         
         return page.getKey(i - 1).getTreePtr();
     }
+    
+    /*
+     * Traverses the tree in order, keeping the pages on the way to the
+     * current key along with the next key of each.
+     */
+    private class Range implements Iterator<BTreeKey> {
+        // First key of the range and the last value in it.
+        private final long fromKey;
+        private final int fromId;
+        private final long to;
+        
+        private final Deque<BTreePage> pages = new ArrayDeque<BTreePage>();
+        private final Deque<Integer> positions = new ArrayDeque<Integer>();
+        
+        private BTreeKey next;
+        private boolean started;
+        
+        Range(long fromKey, int fromId, long to) {
+            this.fromKey = fromKey;
+            this.fromId = fromId;
+            this.to = to;
+            
+            // An empty range never reads the root.
+            this.started = fromKey > to;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (next != null)
+                return true;
+            
+            try {
+                if (!started) {
+                    started = true;
+                    descend(rootPos);
+                }
+                
+                next = advance();
+                
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                    new IOException("Unable to iterate over keys", e));
+            }
+            
+            return next != null;
+        }
+        
+        @Override
+        public BTreeKey next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            
+            BTreeKey key = next;
+            next = null;
+            
+            return key;
+        }
+        
+        private BTreeKey advance() throws IOException {
+            while (!pages.isEmpty()) {
+                BTreePage page = pages.peek();
+                int i = positions.pop();
+                
+                if (i == page.getElements()) {
+                    pages.pop();
+                    continue;
+                }
+                
+                positions.push(i + 1);
+                
+                BTreeKey key = page.getKey(i);
+                
+                if (key.getKey() > to) {
+                    pages.clear();
+                    positions.clear();
+                    
+                    return null;
+                }
+                
+                if (!page.getLeaf())
+                    descend(key.getTreePtr());
+                
+                if (key.getDbPtr() != -1)
+                    return key;
+            }
+            
+            return null;
+        }
+        
+        /*
+         * Goes down to the leaf where keys from the start of the range
+         * would be, keeping each page's first key within it.
+         */
+        private void descend(long pagePos) throws IOException {
+            while (pagePos != -1) {
+                BTreePage page = new BTreePage(order);
+                page.deserialize(tree, pagePos);
+                
+                int i = 0;
+                
+                while (i < page.getElements()
+                        && page.getKey(i).compareTo(fromKey, fromId) < 0)
+                    i++;
+                
+                pages.push(page);
+                positions.push(i);
+                
+                if (page.getLeaf() || page.getElements() == 0)
+                    return;
+                
+                pagePos = (i == 0) ? page.getTreePtr() : page.getKey(i - 1).getTreePtr();
+            }
+        }
+    }
+    
+    // Pages of the tree file fetched so far.
+    public long fetches() {
+        return tree.fetches();
+    }
+    
+    public void flush() throws IOException {
+        tree.flush();
+    }
+    
+    public void sync() throws IOException {
+        tree.sync();
+    }
+    
+    public void close() throws IOException {
+        tree.close();
+    }
 }
\ No newline at end of file
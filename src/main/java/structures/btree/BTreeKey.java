@@ -1,9 +1,16 @@
 package main.java.structures.btree;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
-public class BTreeKey {
+import main.java.storage.BufferedFile;
+
+/*
+ * Keys are ordered by their value and then by the record's id, so
+ * any amount of records may share a value and still be told apart.
+ * Trees of ids use the id itself as the value.
+ */
+public class BTreeKey implements Comparable<BTreeKey> {
+    private long key;
     private int id;
     private long dbPtr;
     private long treePtr;
@@ -17,11 +24,24 @@ public class BTreeKey {
     }
     
     public BTreeKey(int id, long dbPtr, long treePtr) {
+        this(id, id, dbPtr, treePtr);
+    }
+    
+    public BTreeKey(long key, int id, long dbPtr, long treePtr) {
+        this.key = key;
         this.id = id;
         this.dbPtr = dbPtr;
         this.treePtr = treePtr;
     }
     
+    public long getKey() {
+        return this.key;
+    }
+    
+    public void setKey(long key) {
+        this.key = key;
+    }
+    
     public int getId() {
         return this.id;
     }
@@ -46,8 +66,20 @@ public class BTreeKey {
         this.treePtr = treePtr;
     }
     
-    public void serialize(RandomAccessFile raf) throws IOException {
+    @Override
+    public int compareTo(BTreeKey other) {
+        return compareTo(other.key, other.id);
+    }
+    
+    public int compareTo(long key, int id) {
+        int cmp = Long.compare(this.key, key);
+        
+        return (cmp != 0) ? cmp : Integer.compare(this.id, id);
+    }
+    
+    public void serialize(BufferedFile raf) throws IOException {
         try {
+            raf.writeLong(key);
             raf.writeInt(id);
             raf.writeLong(dbPtr);
             raf.writeLong(treePtr);
@@ -57,12 +89,14 @@ public class BTreeKey {
         }
     }
     
-    public void deserialize(RandomAccessFile raf) throws IOException {
+    public void deserialize(BufferedFile raf) throws IOException {
         try {
+            long key = raf.readLong();
             int id = raf.readInt();
             long dbPtr = raf.readLong();
             long treePtr = raf.readLong();
             
+            this.setKey(key);
             this.setId(id);
             this.setDbPtr(dbPtr);
             this.setTreePtr(treePtr);
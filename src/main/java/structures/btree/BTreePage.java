@@ -1,7 +1,8 @@
 package main.java.structures.btree;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+
+import main.java.storage.BufferedFile;
 
 public class BTreePage {
     private final int order;
@@ -91,7 +92,7 @@ public class BTreePage {
     
     public void insertKey(BTreeKey key) {
         int i = elements - 1;
-        while (i >= 0 && key.getId() < keys[i].getId()) {
+        while (i >= 0 && key.compareTo(keys[i]) < 0) {
             keys[i + 1] = keys[i];
             i--;
         }
@@ -100,7 +101,7 @@ public class BTreePage {
         elements++;
     }
     
-    public void serialize(RandomAccessFile raf) throws IOException {
+    public void serialize(BufferedFile raf) throws IOException {
         try {
             this.pos = raf.getFilePointer();
             
@@ -114,6 +115,7 @@ public class BTreePage {
                     keys[i].serialize(raf);
                     
                 } else {
+                    raf.writeLong(-1);
                     raf.writeInt(-1);
                     raf.writeLong(-1);
                     raf.writeLong(-1);
@@ -126,11 +128,11 @@ public class BTreePage {
         }
     }
     
-    public void deserialize(RandomAccessFile raf) throws IOException {
+    public void deserialize(BufferedFile raf) throws IOException {
         deserialize(raf, this.pos);
     }
     
-    public void deserialize(RandomAccessFile raf, long pos) throws IOException {
+    public void deserialize(BufferedFile raf, long pos) throws IOException {
         try {
             raf.seek(pos);
             
@@ -0,0 +1,258 @@
+package main.java.structures.column;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import main.java.database.Record;
+import main.java.storage.BufferedFile;
+
+/*
+ * Keeps the numeric attributes of every record as primitive arrays
+ * indexed by id, so filters and aggregates over them run as plain
+ * loops instead of decoding whole records.
+ *
+ * The arrays are mirrored in a file, each column stored after the
+ * other, all of them with room for the same amount of ids:
+ *
+ * <capacity> <live>... <score>... <episodes>... <date>...
+ *
+ * Every change is written to its cell, and the whole file is rewritten
+ * only when it has to grow, doubling its capacity.
+ */
+public class ColumnStore {
+    private static final int HEADER = Integer.BYTES;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final BufferedFile file;
+
+    private int capacity;
+
+    // Ids whose records exist in the database.
+    private boolean[] live;
+    private float[] scores;
+    private short[] episodes;
+    private long[] dates;
+
+    // One more than the highest id stored.
+    private int size;
+
+    public ColumnStore() throws IOException {
+        try {
+            this.file = new BufferedFile("columns.bin");
+
+            if (file.length() < HEADER) {
+                allocate(INITIAL_CAPACITY);
+                write();
+            } else {
+                read();
+            }
+
+        } catch (IOException e) {
+            throw new IOException("Error while initializing columns file", e);
+        }
+    }
+
+    // Stores the attributes of a record, either new or updated.
+    public void set(Record record) throws IOException {
+        int id = record.getId();
+
+        if (id >= capacity)
+            grow(id + 1);
+
+        live[id] = true;
+        scores[id] = record.getScore();
+        episodes[id] = (short)record.getEpisodes();
+        dates[id] = record.getDate().getTime();
+
+        size = Math.max(size, id + 1);
+
+        try {
+            file.seek(liveOffset(id));
+            file.writeBoolean(true);
+            file.seek(scoreOffset(id));
+            file.writeFloat(scores[id]);
+            file.seek(episodesOffset(id));
+            file.writeShort(episodes[id]);
+            file.seek(dateOffset(id));
+            file.writeLong(dates[id]);
+
+        } catch (IOException e) {
+            throw new IOException("Unable to store the columns of id " + id, e);
+        }
+    }
+
+    public void remove(int id) throws IOException {
+        if (id >= size || !live[id])
+            return;
+
+        live[id] = false;
+
+        file.seek(liveOffset(id));
+        file.writeBoolean(false);
+    }
+
+    public void clear() throws IOException {
+        size = 0;
+
+        allocate(INITIAL_CAPACITY);
+        write();
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < size && live[id];
+    }
+
+    public float score(int id) {
+        return scores[id];
+    }
+
+    public int episodes(int id) {
+        return episodes[id];
+    }
+
+    public long date(int id) {
+        return dates[id];
+    }
+
+    // Upper bound, exclusive, of the ids stored.
+    public int size() {
+        return this.size;
+    }
+
+    // Returns the ids of the records with a score in the range, inclusive.
+    public int[] scoreBetween(float min, float max) {
+        int[] ids = new int[size];
+        int n = 0;
+
+        for (int id = 0; id < size; id++) {
+            if (live[id] && scores[id] >= min && scores[id] <= max)
+                ids[n++] = id;
+        }
+
+        return Arrays.copyOf(ids, n);
+    }
+
+    // Returns the ids of the records dated in the range, inclusive.
+    public int[] dateBetween(long from, long to) {
+        int[] ids = new int[size];
+        int n = 0;
+
+        for (int id = 0; id < size; id++) {
+            if (live[id] && dates[id] >= from && dates[id] <= to)
+                ids[n++] = id;
+        }
+
+        return Arrays.copyOf(ids, n);
+    }
+
+    public void flush() throws IOException {
+        file.flush();
+    }
+
+    public void sync() throws IOException {
+        file.sync();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // Replaces the arrays, keeping the values of the ids stored.
+    private void allocate(int capacity) {
+        boolean[] live = new boolean[capacity];
+        float[] scores = new float[capacity];
+        short[] episodes = new short[capacity];
+        long[] dates = new long[capacity];
+
+        if (size > 0) {
+            System.arraycopy(this.live, 0, live, 0, size);
+            System.arraycopy(this.scores, 0, scores, 0, size);
+            System.arraycopy(this.episodes, 0, episodes, 0, size);
+            System.arraycopy(this.dates, 0, dates, 0, size);
+        }
+
+        this.capacity = capacity;
+        this.live = live;
+        this.scores = scores;
+        this.episodes = episodes;
+        this.dates = dates;
+    }
+
+    private void grow(int required) throws IOException {
+        int newCapacity = capacity;
+
+        while (newCapacity < required)
+            newCapacity *= 2;
+
+        allocate(newCapacity);
+        write();
+    }
+
+    // Rewrites the whole file from the arrays.
+    private void write() throws IOException {
+        try {
+            file.setLength(0);
+            file.seek(0);
+            file.writeInt(capacity);
+
+            for (int i = 0; i < capacity; i++)
+                file.writeBoolean(live[i]);
+
+            for (int i = 0; i < capacity; i++)
+                file.writeFloat(scores[i]);
+
+            for (int i = 0; i < capacity; i++)
+                file.writeShort(episodes[i]);
+
+            for (int i = 0; i < capacity; i++)
+                file.writeLong(dates[i]);
+
+        } catch (IOException e) {
+            throw new IOException("Unable to write columns file", e);
+        }
+    }
+
+    private void read() throws IOException {
+        try {
+            file.seek(0);
+            allocate(file.readInt());
+
+            for (int i = 0; i < capacity; i++) {
+                live[i] = file.readBoolean();
+
+                if (live[i])
+                    size = i + 1;
+            }
+
+            for (int i = 0; i < capacity; i++)
+                scores[i] = file.readFloat();
+
+            for (int i = 0; i < capacity; i++)
+                episodes[i] = file.readShort();
+
+            for (int i = 0; i < capacity; i++)
+                dates[i] = file.readLong();
+
+        } catch (IOException e) {
+            throw new IOException("Unable to read columns file", e);
+        }
+    }
+
+    private long liveOffset(int id) {
+        return HEADER + id;
+    }
+
+    private long scoreOffset(int id) {
+        return HEADER + (long)capacity + (long)id * Float.BYTES;
+    }
+
+    private long episodesOffset(int id) {
+        return HEADER + (long)capacity * (1 + Float.BYTES) + (long)id * Short.BYTES;
+    }
+
+    private long dateOffset(int id) {
+        return HEADER + (long)capacity * (1 + Float.BYTES + Short.BYTES)
+            + (long)id * Long.BYTES;
+    }
+}
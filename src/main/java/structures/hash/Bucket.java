@@ -1,7 +1,8 @@
 package main.java.structures.hash;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+
+import main.java.storage.BufferedFile;
 
 public class Bucket {
   private byte ele;
@@ -104,7 +105,7 @@ public class Bucket {
     nos[j].pointer = no.pointer;
  }
 
-  public void serialize(RandomAccessFile raf) throws IOException {
+  public void serialize(BufferedFile raf) throws IOException {
     raf.writeByte(ele);
     raf.writeShort(depth);
     for (int i = 0; i < size; i++) {
@@ -113,7 +114,7 @@ public class Bucket {
     }
   }
 
-  public static Bucket deserialize(RandomAccessFile raf) throws IOException {
+  public static Bucket deserialize(BufferedFile raf) throws IOException {
     try {
       byte ele = raf.readByte();
       short depth = raf.readShort();
@@ -144,7 +145,8 @@ public class Bucket {
   public long getPos(int id) {
     long pos = -1;
     for(BucketNode node : nodes) {
-      if(node.key == id) {
+      // Empty nodes hold Integer.MAX_VALUE as their key, which is a valid id.
+      if(node.key == id && node.pointer != Long.MAX_VALUE) {
         pos = node.pointer;
         break;
       }
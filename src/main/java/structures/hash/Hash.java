@@ -2,17 +2,17 @@ package main.java.structures.hash;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 
 import main.java.database.Record;
+import main.java.storage.BufferedFile;
 
 public class Hash {
   private int globalDepth;
   private byte bucketLength = 87;
   private int maxEle = 7;
   public ArrayList<Long> directory;
-  private final RandomAccessFile buckets;
+  private final BufferedFile buckets;
   /*
    * Cada bucket pode armazenar até 7 chaves
    * Estrutura:
@@ -25,16 +25,13 @@ public class Hash {
     this.directory = new ArrayList<Long>();
     this.globalDepth = 1;
 
-    this.buckets = new RandomAccessFile("buckets.bin", "rw");
+    this.buckets = new BufferedFile("buckets.bin");
     this.initialize();
   }
 
+  // Negative ids map to a slot too, so searching them finds nothing.
   private int hash(int id) {
-    return (int) (id % Math.pow(2, globalDepth));
-  }
-
-  private int hash(int id, int depth) {
-    return (int) (id % Math.pow(2, depth));
+    return Math.floorMod(id, 1 << globalDepth);
   }
 
   public void initialize() throws IOException {
@@ -56,9 +53,6 @@ public class Hash {
   }
 
   public void add(int id, long pointer) throws IOException {
-    // monto meu novo "no" do bucket
-    BucketNode newNode = new BucketNode(id, pointer);
-
     // pegar a posição do bucket
     int pos = hash(id);
     long seek = directory.get(pos);
@@ -66,33 +60,25 @@ public class Hash {
 
     // pego as informaçoes do meu bucket
     Bucket bucket = Bucket.deserialize(buckets);
-    if (bucket.getEle() < maxEle) { // bucket ainda não está cheio
-      BucketNode node = new BucketNode(id, pointer);
-      bucket.setNode(node);
-      bucket.sort();
-      buckets.seek(seek); // volto o ponteiro para o início do bucket e reescrevo ordenadamente
-      bucket.serialize(buckets);
-    } else if (bucket.getDepth() < globalDepth) { // bucket esta cheio mas a profundidade local é menor do que a global
-      BucketNode[] allNodes = getAllNodes(bucket, newNode);
-      splitBucket(allNodes, (bucket.getDepth() + 1), pos);
-
-    } else { // bucket esta cheio e sua profundidade local é igual a global
-      incraseDepth();
-      BucketNode[] allNodes = getAllNodes(bucket, newNode);
-      splitBucket(allNodes, globalDepth, pos);
-    }
-  }
 
-  private BucketNode[] getAllNodes(Bucket bucket, BucketNode node) {
-    BucketNode[] allNodes = new BucketNode[bucket.getEle() + 1];
+    // enquanto o bucket estiver cheio, divido ele e procuro de novo
+    while (bucket.getEle() >= maxEle) {
+      // profundidade local igual a global: o diretorio precisa dobrar
+      if (bucket.getDepth() >= globalDepth)
+        incraseDepth();
 
-    for (int i = 0; i < bucket.getEle(); i++) {
-      allNodes[i] = new BucketNode(bucket.getNode(i).key, bucket.getNode(i).pointer);
-    }
+      splitBucket(bucket, seek);
 
-    allNodes[allNodes.length - 1] = new BucketNode(node.key, node.pointer);
+      pos = hash(id);
+      seek = directory.get(pos);
+      buckets.seek(seek);
+      bucket = Bucket.deserialize(buckets);
+    }
 
-    return allNodes;
+    bucket.setNode(new BucketNode(id, pointer));
+    bucket.sort();
+    buckets.seek(seek); // volto o ponteiro para o início do bucket e reescrevo ordenadamente
+    bucket.serialize(buckets);
   }
 
   private void incraseDepth() {
@@ -103,69 +89,38 @@ public class Hash {
     }
   }
 
-  private int searchOtherPointer(BucketNode[] nodes, int localDepth, int pos) {
-    int otherPointer = -1;
-
-    for(int i = 0; i < nodes.length; i++) {
-      int hash = hash(nodes[i].key, localDepth);
-      if(hash != pos) {
-        otherPointer = hash;
-        break;
-      }
-    }
-    return otherPointer;
-  }
+  /*
+   * Divide o bucket em dois, com profundidade local uma maior. As chaves
+   * cujo bit de numero igual a profundidade antiga vale 1 vão para um
+   * novo bucket no fim do arquivo, assim como as posições do diretorio
+   * que apontavam para o antigo e têm esse bit.
+   */
+  private void splitBucket(Bucket bucket, long seek) throws IOException {
+    int depth = bucket.getDepth();
+    long newSeek = buckets.length();
 
-  private void splitBucket(BucketNode[] nodes, int localDepth, int pos) throws IOException {
-    int newPos = searchOtherPointer(nodes, localDepth, pos);
+    Bucket oldBucket = new Bucket((short) (depth + 1));
+    Bucket newBucket = new Bucket((short) (depth + 1));
 
-    //Preciso saber se entrar no loop para poder voltar o profundidade local para o valor correto
-    boolean loop = false;
+    for (int i = 0; i < bucket.getEle(); i++) {
+      BucketNode node = bucket.getNode(i);
 
-    // Caso em que é necessário aumentar mais de uma vez a profundidade global para conseguir distribuir as chaves
-    // Para entrar nesse while foi um caso muito especifico que me deparei testando 
-    while((newPos == -1)) {
-      newPos = searchOtherPointer(nodes, localDepth++, pos);
-      if(newPos == -1) {
-        incraseDepth();
+      if (((node.key >> depth) & 1) == 0) {
+        oldBucket.setNode(new BucketNode(node.key, node.pointer));
+      } else {
+        newBucket.setNode(new BucketNode(node.key, node.pointer));
       }
-      loop = true;
     }
 
-    if(loop) {      
-      localDepth--;
-    }
-
-    // Preciso aumantar a profundidade local em 1 no caso em que o diretorio aponta para outro diretorio
-    if(hash(pos, localDepth) == hash(newPos, localDepth)) {
-      localDepth++;
-    }
-
-    if(pos > newPos) {
-      int tempPos = pos;
-      pos = newPos;
-      newPos = tempPos;
-    }
-
-    // Adiciono a nova posição do bucket ao diretorio
-    directory.remove(newPos);
-    directory.add(newPos, (long) (newPos * bucketLength));
-    Bucket newBucket = new Bucket((short) localDepth);
-    Bucket oldBucket = new Bucket((short) localDepth);
-
-    for (BucketNode node : nodes) {
-      int hashPos = hash(node.key, localDepth);
-      if (hashPos == pos) {
-        oldBucket.setNode(node);
-      } else {
-        newBucket.setNode(node);
-      }
+    for (int i = 0; i < directory.size(); i++) {
+      if (directory.get(i) == seek && ((i >> depth) & 1) == 1)
+        directory.set(i, newSeek);
     }
 
-    buckets.seek(directory.get(pos));
+    buckets.seek(seek);
     oldBucket.serialize(buckets);
 
-    buckets.seek(directory.get(newPos));
+    buckets.seek(newSeek);
     newBucket.serialize(buckets);
   }
 
@@ -178,7 +133,55 @@ public class Hash {
     return bucket.getPos(id);
   }
 
-  private boolean eof(RandomAccessFile raf) throws IOException {
+  public boolean update(int id, long pointer) throws IOException {
+    long seek = directory.get(hash(id));
+    buckets.seek(seek);
+    Bucket bucket = Bucket.deserialize(buckets);
+
+    for (BucketNode node : bucket.getNodes()) {
+      if (node.key == id) {
+        node.pointer = pointer;
+        buckets.seek(seek);
+        bucket.serialize(buckets);
+
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public boolean remove(int id) throws IOException {
+    long seek = directory.get(hash(id));
+    buckets.seek(seek);
+    Bucket bucket = Bucket.deserialize(buckets);
+
+    for (BucketNode node : bucket.getNodes()) {
+      if (node.key == id) {
+        // o "no" volta a ser vazio e a ordenacao o leva para o fim do bucket
+        node.key = Integer.MAX_VALUE;
+        node.pointer = Long.MAX_VALUE;
+        bucket.setEle((byte) (bucket.getEle() - 1));
+        bucket.sort();
+        buckets.seek(seek);
+        bucket.serialize(buckets);
+
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // descarta todos os buckets e volta ao estado inicial
+  public void clear() throws IOException {
+    directory.clear();
+    globalDepth = 1;
+    buckets.setLength(0);
+    initialize();
+  }
+
+  private boolean eof(BufferedFile raf) throws IOException {
     try {
       return raf.getFilePointer() == raf.length();
 
@@ -205,4 +208,20 @@ public class Hash {
     }
   }
 
+  // Pages of the buckets file fetched so far.
+  public long fetches() {
+    return buckets.fetches();
+  }
+
+  public void flush() throws IOException {
+    buckets.flush();
+  }
+
+  public void sync() throws IOException {
+    buckets.sync();
+  }
+
+  public void close() throws IOException {
+    buckets.close();
+  }
 }
\ No newline at end of file
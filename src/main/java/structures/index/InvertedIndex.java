@@ -1,30 +1,63 @@
 package main.java.structures.index;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import main.java.database.Dictionary;
 import main.java.database.Record;
+import main.java.storage.BufferedFile;
 
 /*
  * Allows searching operations based on attributes
  * other than the records' id value.
  */
 public class InvertedIndex {
-    private RandomAccessFile index;
     /*
-     * The dictionary structure is used to support a considerably
-     * large amount of keys and be flexible towards their types.
+     * The information stored in the index file presents the following
+     * structure for each "node" of the lists:
+     *
+     * <database-pointer><record-id><producer><next-node-pointer>
+     *
+     * The id allows reading the record's columns without the record,
+     * and whether the key is one of its producers tells them apart
+     * from genres of the same name.
      */
-    private Map<Object, Long> map;
+    public static final int NODE_BYTES = Long.BYTES + Integer.BYTES + 1 + Long.BYTES;
+    
+    // Offsets of the "producer" and "next" fields within a node.
+    private static final int PRODUCER = Long.BYTES + Integer.BYTES;
+    private static final int NEXT = NODE_BYTES - Long.BYTES;
+    
+    private BufferedFile index;
+    /*
+     * Keys are the numbers given to the attributes by the records'
+     * dictionary, so they're compared and hashed as plain integers.
+     */
+    private Map<Integer, Long> map;
+    private Dictionary dictionary;
+    
+    /*
+     * Records having each key as a genre and as a producer, which make
+     * up its list, for estimating the cost of reading it.
+     */
+    private Map<Integer, Integer> genreSizes;
+    private Map<Integer, Integer> producerSizes;
     
     public InvertedIndex() throws IOException {
         try {
-            this.index = new RandomAccessFile("index.bin","rw");
-            this.map = new HashMap<Object, Long>();
+            this.index = new BufferedFile("index.bin");
+            this.map = new HashMap<Integer, Long>();
+            this.genreSizes = new HashMap<Integer, Integer>();
+            this.producerSizes = new HashMap<Integer, Integer>();
+            this.dictionary = Dictionary.shared();
             
         } catch (IOException e) {
             throw new IOException("Error while initializing index file", e);
@@ -41,32 +74,96 @@ public class InvertedIndex {
          * most descriptive fields and also the ones with a
          * decent record intersection.
          */
-        String[] genres = record.getGenres();
-        String[] producers = record.getProducers();
+        for (String genre : distinct(record.getGenres()))
+            insert(dictionary.encode(genre), new Posting(dbPtr, record.getId(), false));
+        
+        for (String producer : distinct(record.getProducers()))
+            insert(dictionary.encode(producer), new Posting(dbPtr, record.getId(), true));
+    }
+    
+    /*
+     * Same as inserting each record with its pointer, in order, but
+     * the pointers are grouped by attribute first, so each list is
+     * traversed once and its new nodes are written next to each other.
+     */
+    public void insertAll(List<Record> records, long[] dbPtrs)
+        throws IOException {
         
-        for (String genre : genres) {
-            genre = genre.trim();
+        Map<Integer, List<Posting>> postings = new TreeMap<Integer, List<Posting>>();
+        
+        for (int i = 0; i < dbPtrs.length; i++) {
+            Record record = records.get(i);
+            
+            for (String genre : distinct(record.getGenres()))
+                postings.computeIfAbsent(dictionary.encode(genre),
+                    k -> new ArrayList<Posting>()).add(
+                        new Posting(dbPtrs[i], record.getId(), false));
             
-            insert(genre, dbPtr);
+            for (String producer : distinct(record.getProducers()))
+                postings.computeIfAbsent(dictionary.encode(producer),
+                    k -> new ArrayList<Posting>()).add(
+                        new Posting(dbPtrs[i], record.getId(), true));
         }
         
-        for (String producer : producers) {
-            producer = producer.trim();
-            insert(producer, dbPtr);
-        }
+        for (Map.Entry<Integer, List<Posting>> entry : postings.entrySet())
+            insertAll(entry.getKey(), entry.getValue());
+    }
+    
+    /*
+     * Unlinks the record's pointer from the list of every
+     * attribute presented by it.
+     */
+    public void remove(Record record, long dbPtr) throws IOException {
+        for (String genre : distinct(record.getGenres()))
+            remove(dictionary.find(genre), dbPtr);
+        
+        for (String producer : distinct(record.getProducers()))
+            remove(dictionary.find(producer), dbPtr);
+    }
+    
+    /*
+     * Entries of a record, trimmed, each once however many times it's
+     * listed, so its lists hold it once and it's only counted once.
+     */
+    private static Set<String> distinct(String[] entries) {
+        Set<String> distinct = new LinkedHashSet<String>();
+        
+        for (String entry : entries)
+            distinct.add(entry.trim());
+        
+        return distinct;
+    }
+    
+    /*
+     * Keeps the index pointing to the record's current content
+     * and position, even if its attributes have changed.
+     */
+    public void update(Record prev, long prevPtr, Record next, long nextPtr)
+        throws IOException {
+        
+        remove(prev, prevPtr);
+        insert(next, nextPtr);
+    }
+    
+    // Discards every entry, both from the dictionary and the file.
+    public void clear() throws IOException {
+        map.clear();
+        genreSizes.clear();
+        producerSizes.clear();
+        index.setLength(0);
     }
     
     /*
      * Inserts a new entry in the dictionary or a new "node" in
      * the linked-list file.
      */
-    private <K> void insert(K key, long dbPtr) throws IOException {
+    private void insert(int key, Posting posting) throws IOException {
         try {
             long indexPtr;
             
             if (map.containsKey(key)) {
                 indexPtr = map.get(key);
-                fileWrite(indexPtr, dbPtr);
+                fileWrite(indexPtr, posting);
             } else {
                 index.seek(index.length());
                 
@@ -78,29 +175,129 @@ public class InvertedIndex {
                  */
                 map.put(key, indexPtr);
                 
-                /*
-                 * The information stored in the index file present
-                 * the following structure:
-                 * 
-                 * <database-pointer><next-node-pointer>
-                 */
-                index.writeLong(dbPtr);
-                index.writeLong(-1);
+                posting.write(index, -1);
             }
+            
+            sizes(posting.producer).merge(key, 1, Integer::sum);
+            
         } catch (IOException e) {
             throw new IOException("Unable to insert genres from record", e);
         }
     }
     
+    // Appends the pointers to the end of the key's list, in order.
+    private void insertAll(int key, List<Posting> postings) throws IOException {
+        try {
+            long start = index.length();
+            
+            // Last "next" field of the list, which gets linked to them.
+            long tail = -1;
+            
+            if (map.containsKey(key)) {
+                long currPtr = map.get(key);
+                
+                while (currPtr != -1) {
+                    tail = currPtr + NEXT;
+                    
+                    index.seek(tail);
+                    currPtr = index.readLong();
+                }
+            } else {
+                map.put(key, start);
+            }
+            
+            index.seek(start);
+            
+            for (int i = 0; i < postings.size(); i++) {
+                boolean last = i == postings.size() - 1;
+                
+                postings.get(i).write(index,
+                    last ? -1 : index.getFilePointer() + NODE_BYTES);
+            }
+            
+            if (tail != -1) {
+                index.seek(tail);
+                index.writeLong(start);
+            }
+            
+            for (Posting posting : postings)
+                sizes(posting.producer).merge(key, 1, Integer::sum);
+            
+        } catch (IOException e) {
+            throw new IOException(
+                "Unable to insert new records with the specified token", e);
+        }
+    }
+    
+    // Removes the "node" that holds the pointer from the key's list.
+    private void remove(int key, long dbPtr) throws IOException {
+        try {
+            if (!map.containsKey(key))
+                return;
+            
+            long prevPtr = -1, currPtr = map.get(key);
+            
+            while (currPtr != -1) {
+                index.seek(currPtr);
+                
+                long recordPtr = index.readLong();
+                
+                index.seek(currPtr + PRODUCER);
+                boolean producer = index.readBoolean();
+                long nextPtr = index.readLong();
+                
+                if (recordPtr == dbPtr) {
+                    /*
+                     * Removing the head either promotes the next node or,
+                     * when it was the only one, discards the key itself.
+                     */
+                    if (prevPtr == -1) {
+                        if (nextPtr == -1)
+                            map.remove(key);
+                        else
+                            map.put(key, nextPtr);
+                    } else {
+                        index.seek(prevPtr + NEXT);
+                        index.writeLong(nextPtr);
+                    }
+                    
+                    Map<Integer, Integer> sizes = sizes(producer);
+
+                    if (sizes.merge(key, -1, Integer::sum) == 0)
+                        sizes.remove(key);
+                    
+                    return;
+                }
+                
+                prevPtr = currPtr;
+                currPtr = nextPtr;
+            }
+        } catch (IOException e) {
+            throw new IOException(
+                "Unable to remove record with the specified token", e);
+        }
+    }
+    
+    private Map<Integer, Integer> sizes(boolean producers) {
+        return producers ? producerSizes : genreSizes;
+    }
+    
     /*
      * Returns a list of pointers to the database file,
      * each representing the position of a record that
      * contains that key.
      */
     public <K> List<Long> get(K key) throws IOException {
+        return get(dictionary.find(key.toString()));
+    }
+
+    public List<Long> get(int key) throws IOException {
         try {
             List<Long> recordPtrs = new ArrayList<Long>();
             
+            if (!map.containsKey(key))
+                return recordPtrs;
+            
             // Head pointer
             long indexPtr = map.get(key);
             
@@ -111,6 +308,8 @@ public class InvertedIndex {
             while (indexPtr != -1) {
                 index.seek(indexPtr);
                 recordPtrs.add(index.readLong());
+                
+                index.seek(indexPtr + NEXT);
                 indexPtr = index.readLong();
             }
             
@@ -137,13 +336,133 @@ public class InvertedIndex {
         return firstList;
     }
     
+    // Returns the length of the key's list, genres and producers alike.
+    public <K> int count(K key) {
+        int code = dictionary.find(key.toString());
+
+        return genreSizes.getOrDefault(code, 0) + producerSizes.getOrDefault(code, 0);
+    }
+
+    // Returns the amount of records with the key as a producer or genre.
+    public <K> int count(K key, boolean producers) {
+        return sizes(producers).getOrDefault(dictionary.find(key.toString()), 0);
+    }
+    
+    /*
+     * Returns the positions of the records that contain every key, in
+     * ascending order. Lists are read from the shortest on, so the
+     * longer ones are skipped once nothing is left.
+     */
+    public List<Long> getAll(List<String> keys) throws IOException {
+        List<String> sorted = new ArrayList<String>(keys);
+        sorted.sort(Comparator.comparingInt(this::count));
+        
+        long[] common = null;
+        
+        for (String key : sorted) {
+            long[] ptrs = distinct(get(key));
+            
+            common = (common == null) ? ptrs : intersect(common, ptrs);
+            
+            if (common.length == 0)
+                break;
+        }
+        
+        List<Long> recordPtrs = new ArrayList<Long>();
+        
+        if (common != null) {
+            for (long ptr : common)
+                recordPtrs.add(ptr);
+        }
+        
+        return recordPtrs;
+    }
+    
+    // Records listing a key more than once are found a single time.
+    private static long[] distinct(List<Long> list) {
+        long[] array = new long[list.size()];
+        
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        
+        Arrays.sort(array);
+        
+        int n = 0;
+        
+        for (int i = 0; i < array.length; i++) {
+            if (n == 0 || array[i] != array[n - 1])
+                array[n++] = array[i];
+        }
+        
+        return Arrays.copyOf(array, n);
+    }
+    
+    // Both arrays are sorted, so they're merged in a single pass.
+    private static long[] intersect(long[] first, long[] second) {
+        long[] common = new long[Math.min(first.length, second.length)];
+        int n = 0;
+        
+        for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                common[n++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        
+        return Arrays.copyOf(common, n);
+    }
+    
+    /*
+     * Passes the id of every record in the lists to the visitor, along
+     * with the key, for the keys presented as genres or producers.
+     * Each list is read in a single pass, without reading any record.
+     */
+    public void forEach(boolean producers, Visitor visitor) throws IOException {
+        try {
+            for (Map.Entry<Integer, Long> entry : map.entrySet()) {
+                int key = entry.getKey();
+                long indexPtr = entry.getValue();
+                
+                while (indexPtr != -1) {
+                    index.seek(indexPtr + Long.BYTES);
+                    
+                    int id = index.readInt();
+                    boolean producer = index.readBoolean();
+                    
+                    if (producer == producers)
+                        visitor.visit(key, id);
+                    
+                    indexPtr = index.readLong();
+                }
+            }
+            
+        } catch (IOException e) {
+            throw new IOException("Unable to traverse the index", e);
+        }
+    }
+    
+    // Receives the key of a list, as numbered by the dictionary, and an id in it.
+    public interface Visitor {
+        void visit(int key, int id);
+    }
+    
+    // Pages of the index file fetched so far.
+    public long fetches() {
+        return index.fetches();
+    }
+    
     // Inserts a new record pointer to the linked-list.
-    private void fileWrite(long indexPtr, long dbPtr) throws IOException {
+    private void fileWrite(long indexPtr, Posting posting) throws IOException {
         try {
             long prevPtr = -1, currPtr = indexPtr;
             
             while (currPtr != -1) {
-                index.seek(currPtr + Long.BYTES);
+                index.seek(currPtr + NEXT);
                 
                 prevPtr = index.getFilePointer();
                 currPtr = index.readLong();
@@ -153,8 +472,7 @@ public class InvertedIndex {
             
             currPtr = index.getFilePointer();
             
-            index.writeLong(dbPtr);
-            index.writeLong(-1);
+            posting.write(index, -1);
             
             index.seek(prevPtr);
             index.writeLong(currPtr);
@@ -164,4 +482,37 @@ public class InvertedIndex {
                 "Unable to insert new record with the specified token", e);
         }
     }
-}
+    
+    // Content of a node, other than the pointer to the next one.
+    private static class Posting {
+        private final long dbPtr;
+        private final int id;
+        private final boolean producer;
+        
+        Posting(long dbPtr, int id, boolean producer) {
+            this.dbPtr = dbPtr;
+            this.id = id;
+            this.producer = producer;
+        }
+        
+        // Writes the node at the file pointer.
+        void write(BufferedFile index, long nextPtr) throws IOException {
+            index.writeLong(dbPtr);
+            index.writeInt(id);
+            index.writeBoolean(producer);
+            index.writeLong(nextPtr);
+        }
+    }
+    
+    public void flush() throws IOException {
+        index.flush();
+    }
+    
+    public void sync() throws IOException {
+        index.sync();
+    }
+    
+    public void close() throws IOException {
+        index.close();
+    }
+}
\ No newline at end of file
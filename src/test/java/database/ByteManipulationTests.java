@@ -8,11 +8,13 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.List;
 
 // Related to all the methods implemented within the Database class.
 public class ByteManipulationTests {
@@ -64,6 +66,60 @@ public class ByteManipulationTests {
             System.err.println(e.getMessage());
         }
     }
+
+    @Test
+    public void testMissingSelection() throws Exception {
+        Database db = new Database(new File(binPath));
+        db.build();
+
+        // Ids never given out are simply not found.
+        assertNull(db.get(0));
+        assertNull(db.get(-1));
+        assertNull(db.get(Integer.MIN_VALUE));
+        assertNull(db.get(Integer.MAX_VALUE));
+        assertNull(db.hashSearch(-7));
+        assertNull(db.treeSearch(-7));
+    }
+
+    @Test
+    public void testBatchSelection() throws Exception {
+        Database db = new Database(new File(binPath));
+        db.build();
+
+        // Missing and invalid ids are left out, the rest keep their order.
+        List<Record> records = db.getAll(new int[] {
+            23, -1, 0, 5, Integer.MIN_VALUE, Integer.MAX_VALUE, 23
+        });
+
+        assertEquals(3, records.size());
+        assertEquals(23, records.get(0).getId());
+        assertEquals(5, records.get(1).getId());
+        assertEquals(23, records.get(2).getId());
+    }
+
+    @Test
+    public void testRepeatedGenre() throws Exception {
+        Database db = new Database(new File(binPath));
+        db.build();
+
+        // Listing a genre twice still makes a single record of it.
+        Record record = CSVParser
+            .buildFrom("0,foo,7.5,\"Qux, Qux, Quuz\",10,\"Corge, Corge\",2023-02-17");
+
+        assertEquals(true, db.insert(record));
+
+        Aggregates genres = db.groupByGenre();
+
+        assertEquals(1, genres.count("Qux"));
+        assertEquals(7.5, genres.averageScore("Qux"), 0.0);
+        assertEquals(10, genres.episodes("Qux"));
+        assertEquals(1, db.groupByProducer().count("Corge"));
+        assertEquals(1, db.query(new Query().genre("Qux")).size());
+
+        assertEquals(true, db.delete(record.getId()));
+        assertEquals(0, db.groupByGenre().count("Qux"));
+        assertEquals(0, db.groupByProducer().count("Corge"));
+    }
     
     
     @Test 
@@ -0,0 +1,176 @@
+package test.java.database;
+
+
+import main.java.database.*;
+import main.java.database.Record;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Searches running from several threads while the database is modified.
+public class ConcurrencyTests {
+    private final String binPath = "src/test/concurrency.bin";
+
+    private static final int READERS = 4;
+    private static final int WRITES = 2000;
+
+    @Test
+    public void testReadersWithWriter() throws Exception {
+        new File(binPath).delete();
+        new File(binPath + ".free").delete();
+
+        Database db = new Database(new File(binPath));
+        db.build();
+
+        // Names each id is expected to have, removed once it's deleted.
+        Map<Integer, String> names = new ConcurrentHashMap<Integer, String>();
+        AtomicInteger lastId = new AtomicInteger();
+
+        for (Record record : db.scoreBetween(
+                Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY)) {
+            names.put(record.getId(), record.getName());
+            lastId.set(Math.max(lastId.get(), record.getId()));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+
+        List<Thread> readers = new ArrayList<Thread>();
+
+        for (int i = 0; i < READERS; i++) {
+            Random random = new Random(i);
+
+            readers.add(new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        int id = 1 + random.nextInt(lastId.get());
+
+                        // Whatever is found must be the record asked for.
+                        for (Record record : new Record[] {
+                                db.hashSearch(id), db.treeSearch(id), db.get(id) }) {
+                            if (record != null && record.getId() != id)
+                                failures.incrementAndGet();
+                        }
+
+                        reads.incrementAndGet();
+                    }
+
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+            }));
+        }
+
+        for (Thread reader : readers)
+            reader.start();
+
+        Random random = new Random(READERS);
+
+        for (int i = 0; i < WRITES; i++) {
+            int id = 1 + random.nextInt(lastId.get());
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    Record record = record("inserted " + i);
+
+                    assertTrue(db.insert(record));
+                    names.put(record.getId(), record.getName());
+                    lastId.set(record.getId());
+                    break;
+
+                case 1:
+                    Record updated = record("updated " + i);
+                    updated.setId(id);
+
+                    if (db.update(updated))
+                        names.put(id, updated.getName());
+                    break;
+
+                case 2:
+                    if (db.delete(id))
+                        names.remove(id);
+            }
+        }
+
+        done.set(true);
+
+        for (Thread reader : readers)
+            reader.join();
+
+        assertEquals(0, failures.get());
+        assertTrue(reads.get() > 0);
+
+        // Every index agrees with the modifications made.
+        for (int id = 1; id <= lastId.get(); id++) {
+            String name = names.get(id);
+
+            assertEquals(name, name(db.hashSearch(id)));
+            assertEquals(name, name(db.treeSearch(id)));
+        }
+
+        db.close();
+    }
+
+    @Test
+    public void testAsyncLookups() throws Exception {
+        new File(binPath).delete();
+        new File(binPath + ".free").delete();
+
+        Database db = new Database(new File(binPath));
+        db.build();
+
+        List<Record> records = db.scoreBetween(
+            Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+
+        // Every lookup is requested before any answer is awaited.
+        List<CompletableFuture<Record>> futures = new ArrayList<CompletableFuture<Record>>();
+
+        for (Record record : records) {
+            futures.add(db.hashSearchAsync(record.getId()));
+            futures.add(db.treeSearchAsync(record.getId()));
+            futures.add(db.getAsync(record.getId()));
+        }
+
+        for (int i = 0; i < futures.size(); i++)
+            assertEquals(records.get(i / 3).getName(), name(futures.get(i).get()));
+
+        int lastId = 0;
+
+        for (Record record : records)
+            lastId = Math.max(lastId, record.getId());
+
+        assertEquals(null, db.getAsync(lastId + 1).get());
+
+        db.close();
+    }
+
+    private static Record record(String name) {
+        return new Record(
+            true,
+            0,
+            name,
+            5.0f,
+            new String[] {"Action"},
+            12,
+            new String[] {"Unknown"},
+            new Date());
+    }
+
+    private static String name(Record record) {
+        return (record == null) ? null : record.getName();
+    }
+}
@@ -0,0 +1,156 @@
+package test.java.database;
+
+
+import main.java.database.*;
+import main.java.database.Record;
+import main.java.storage.LogStorage;
+import main.java.storage.MappedFile;
+import main.java.storage.WriteAheadLog;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Recovering from the log after the process is killed in the middle of its work.
+public class RecoveryTests {
+    private static final String binPath = "src/test/recovery.bin";
+    private static final String logPath = "src/test/recovery.wal";
+
+    private static final int WRITES = 500;
+
+    /*
+     * Mapped files reserve space past their last record, which is only
+     * given back when flushed, so a killed process leaves it behind.
+     */
+    @Test
+    public void testMappedLogStorageAfterKill() throws Exception {
+        new File(binPath).delete();
+        new File(binPath + ".free").delete();
+        new File(logPath).delete();
+
+        Process process = new ProcessBuilder(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-cp", System.getProperty("java.class.path"),
+            Killed.class.getName())
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+
+        // Names each id is expected to have, null once it's deleted.
+        Map<Integer, String> names = new HashMap<Integer, String>();
+
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
+
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] fields = line.split("\t", 2);
+
+                names.put(Integer.parseInt(fields[0]),
+                    (fields.length == 1) ? null : fields[1]);
+            }
+        }
+
+        assertEquals(0, process.waitFor());
+        assertTrue(names.size() > 0);
+
+        Database db = open();
+        assertTrue(db.recover() > 0);
+
+        for (Map.Entry<Integer, String> entry : names.entrySet()) {
+            int id = entry.getKey();
+
+            assertEquals(entry.getValue(), name(db.get(id)));
+            assertEquals(entry.getValue(), name(db.hashSearch(id)));
+            assertEquals(entry.getValue(), name(db.treeSearch(id)));
+        }
+
+        // The space reserved past the records isn't taken for them.
+        assertTrue(new File(binPath).length() < MappedFile.SEGMENT_SIZE);
+
+        db.close();
+    }
+
+    /*
+     * Modifies the database, printing the name each id is left with,
+     * and is then killed without closing it.
+     */
+    public static class Killed {
+        public static void main(String[] args) throws Exception {
+            Database db = open();
+            db.build();
+
+            List<Record> records = db.scoreBetween(
+                Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+
+            int lastId = 0;
+
+            for (Record record : records)
+                lastId = Math.max(lastId, record.getId());
+
+            Random random = new Random(WRITES);
+
+            // Each operation is durable once it returns.
+            for (int i = 0; i < WRITES; i++) {
+                int id = 1 + random.nextInt(lastId);
+
+                switch (random.nextInt(3)) {
+                    case 0:
+                        Record record = record("inserted " + i);
+
+                        if (db.insert(record)) {
+                            System.out.println(record.getId() + "\t" + record.getName());
+                            lastId = record.getId();
+                        }
+                        break;
+
+                    case 1:
+                        Record updated = record("updated " + i);
+                        updated.setId(id);
+
+                        if (db.update(updated))
+                            System.out.println(id + "\t" + updated.getName());
+                        break;
+
+                    case 2:
+                        if (db.delete(id))
+                            System.out.println(id);
+                }
+            }
+
+            System.out.flush();
+            Runtime.getRuntime().halt(0);
+        }
+    }
+
+    private static Database open() throws IOException {
+        return new Database(
+            new LogStorage(new MappedFile(new File(binPath)), new File(binPath + ".free")),
+            new WriteAheadLog(new File(logPath)));
+    }
+
+    private static Record record(String name) {
+        return new Record(
+            true,
+            0,
+            name,
+            5.0f,
+            new String[] {"Action"},
+            12,
+            new String[] {"Unknown"},
+            new Date());
+    }
+
+    private static String name(Record record) {
+        return (record == null) ? null : record.getName();
+    }
+}
@@ -0,0 +1,139 @@
+package test.java.structures;
+
+
+import main.java.database.Record;
+import main.java.structures.btree.BTree;
+import main.java.structures.btree.BTreeKey;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Keys inserted in any order, as indexes are rebuilt after sorting.
+public class BTreeTests {
+    private static final int KEYS = 3000;
+
+    @Test
+    public void testShuffledInsertion() throws Exception {
+        BTree tree = new BTree(8);
+        tree.clear();
+
+        Random random = new Random(1);
+        List<Integer> ids = new ArrayList<Integer>();
+
+        for (int id = 1; id <= KEYS; id++)
+            ids.add(id);
+
+        Collections.shuffle(ids, random);
+
+        // Pointers each id is expected to have, removed along with it.
+        TreeMap<Integer, Long> ptrs = new TreeMap<Integer, Long>();
+
+        for (int id : ids) {
+            tree.insert(record(id), id * 10L);
+            ptrs.put(id, id * 10L);
+        }
+
+        for (int i = 0; i < KEYS / 10; i++) {
+            int id = ids.get(i);
+
+            tree.remove(id);
+            ptrs.remove(id);
+        }
+
+        for (int id = 0; id <= KEYS + 1; id++)
+            assertEquals(ptrs.getOrDefault(id, -1L).longValue(), tree.search(id));
+
+        for (int i = 0; i < 100; i++) {
+            int from = random.nextInt(KEYS);
+            int to = from + random.nextInt(KEYS / 4);
+
+            Iterator<BTreeKey> keys = tree.range(from, to);
+
+            for (Map.Entry<Integer, Long> entry : ptrs.subMap(from, true, to, true).entrySet()) {
+                BTreeKey key = keys.next();
+
+                assertEquals(entry.getKey().intValue(), key.getId());
+                assertEquals(entry.getValue().longValue(), key.getDbPtr());
+            }
+
+            assertEquals(false, keys.hasNext());
+        }
+
+        tree.close();
+    }
+
+    // Many records share each value, found in the order of their ids.
+    @Test
+    public void testDuplicateValues() throws Exception {
+        BTree tree = new BTree(8, "values.bin");
+        tree.clear();
+
+        Random random = new Random(2);
+        List<Integer> ids = new ArrayList<Integer>();
+
+        for (int id = 1; id <= KEYS; id++)
+            ids.add(id);
+
+        Collections.shuffle(ids, random);
+
+        // Keys ordered by value, then id, as the tree should have them.
+        TreeMap<Long, Long> ptrs = new TreeMap<Long, Long>();
+
+        for (int id : ids) {
+            long value = BTree.key(random.nextInt(40) / 4.0f - 5);
+
+            tree.insert(value, id, id * 10L);
+            ptrs.put(value << 32 | id, id * 10L);
+        }
+
+        for (int i = 0; i < KEYS / 10; i++) {
+            long key = ptrs.keySet().toArray(new Long[0])[random.nextInt(ptrs.size())];
+
+            tree.remove(key >> 32, (int)key);
+            ptrs.remove(key);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            long from = BTree.key(random.nextInt(40) / 4.0f - 5);
+            long to = BTree.key(random.nextInt(40) / 4.0f - 5);
+
+            Iterator<BTreeKey> keys = tree.range(from, Integer.MIN_VALUE, to);
+
+            if (from <= to) {
+                for (Map.Entry<Long, Long> entry : ptrs.subMap(from << 32, true, to << 32 | Integer.MAX_VALUE, true).entrySet()) {
+                    BTreeKey key = keys.next();
+
+                    assertEquals(entry.getKey() >> 32, key.getKey());
+                    assertEquals((int)(long)entry.getKey(), key.getId());
+                    assertEquals(entry.getValue().longValue(), key.getDbPtr());
+                }
+            }
+
+            assertEquals(false, keys.hasNext());
+        }
+
+        tree.close();
+    }
+
+    private static Record record(int id) {
+        return new Record(
+            true,
+            id,
+            "key " + id,
+            5.0f,
+            new String[] {"Action"},
+            12,
+            new String[] {"Unknown"},
+            new Date());
+    }
+}